@@ -0,0 +1,214 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+// A Scanner that records each token as a type, an offset, a length and a
+// line in a TokenArray instead of creating a Token and a substring, and that
+// recognizes keywords by their characters, like clox does, instead of
+// looking up a substring in a map.
+final class ArrayScanner {
+  private final CharSequence source;
+  private final int length;
+  // If the source is made of UTF-8 bytes, see Utf8Source.
+  private final boolean utf8;
+  private final TokenArray tokens;
+  private int start = 0;
+  private int current = 0;
+  private int line = 1;
+
+  ArrayScanner(CharSequence source) {
+    this.source = source;
+    this.length = source.length();
+    this.utf8 = source instanceof Utf8Source;
+    this.tokens = new TokenArray(source);
+  }
+
+  TokenArray scanTokens() {
+    while (current < length) {
+      // We are at the beginning of the next lexeme.
+      start = current;
+      scanToken();
+    }
+
+    start = current;
+    addToken(EOF);
+    return tokens;
+  }
+
+  private void scanToken() {
+    char c = source.charAt(current++);
+    switch (c) {
+      case '(': addToken(LEFT_PAREN); break;
+      case ')': addToken(RIGHT_PAREN); break;
+      case '{': addToken(LEFT_BRACE); break;
+      case '}': addToken(RIGHT_BRACE); break;
+      case ',': addToken(COMMA); break;
+      case '.': addToken(DOT); break;
+      case '-': addToken(MINUS); break;
+      case '+': addToken(PLUS); break;
+      case ';': addToken(SEMICOLON); break;
+      case '*': addToken(STAR); break;
+      case '!': addToken(match('=') ? BANG_EQUAL : BANG); break;
+      case '=': addToken(match('=') ? EQUAL_EQUAL : EQUAL); break;
+      case '<': addToken(match('=') ? LESS_EQUAL : LESS); break;
+      case '>': addToken(match('=') ? GREATER_EQUAL : GREATER); break;
+      case '/':
+        if (match('/')) {
+          // A comment goes until the end of the line.
+          while (current < length && source.charAt(current) != '\n') {
+            current++;
+          }
+        } else {
+          addToken(SLASH);
+        }
+        break;
+
+      case ' ':
+      case '\r':
+      case '\t':
+        // Ignore whitespace.
+        break;
+
+      case '\n':
+        line++;
+        break;
+
+      case '"': string(); break;
+
+      default:
+        if (isDigit(c)) {
+          number();
+        } else if (isAlpha(c)) {
+          identifier();
+        } else if (utf8 && (c & 0xC0) == 0x80) {
+          // The rest of a character already reported.
+        } else {
+          Lox.error(line, "Unexpected character.");
+
+          // Reported twice when the source is a String, as two chars.
+          if (utf8 && c >= 0xF0) Lox.error(line, "Unexpected character.");
+        }
+        break;
+    }
+  }
+
+  private void identifier() {
+    while (isAlphaNumeric(peek())) current++;
+
+    addToken(identifierType());
+  }
+
+  private TokenType identifierType() {
+    switch (source.charAt(start)) {
+      case 'a': return checkKeyword(1, "nd", AND);
+      case 'c': return checkKeyword(1, "lass", CLASS);
+      case 'e': return checkKeyword(1, "lse", ELSE);
+      case 'f':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'a': return checkKeyword(2, "lse", FALSE);
+            case 'o': return checkKeyword(2, "r", FOR);
+            case 'u': return checkKeyword(2, "n", FUN);
+          }
+        }
+        break;
+      case 'i': return checkKeyword(1, "f", IF);
+      case 'n': return checkKeyword(1, "il", NIL);
+      case 'o': return checkKeyword(1, "r", OR);
+      case 'p': return checkKeyword(1, "rint", PRINT);
+      case 'r': return checkKeyword(1, "eturn", RETURN);
+      case 's': return checkKeyword(1, "uper", SUPER);
+      case 't':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'h': return checkKeyword(2, "is", THIS);
+            case 'r': return checkKeyword(2, "ue", TRUE);
+          }
+        }
+        break;
+      case 'v': return checkKeyword(1, "ar", VAR);
+      case 'w': return checkKeyword(1, "hile", WHILE);
+      case 'y': return checkKeyword(1, "ield", YIELD);
+    }
+
+    return IDENTIFIER;
+  }
+
+  private TokenType checkKeyword(int offset, String rest, TokenType type) {
+    if (current - start != offset + rest.length()) return IDENTIFIER;
+
+    for (int i = 0; i < rest.length(); i++) {
+      if (source.charAt(start + offset + i) != rest.charAt(i)) {
+        return IDENTIFIER;
+      }
+    }
+    return type;
+  }
+
+  private void number() {
+    while (isDigit(peek())) current++;
+
+    // Look for a fractional part.
+    if (peek() == '.' && isDigit(peekNext())) {
+      // Consume the "."
+      current++;
+
+      while (isDigit(peek())) current++;
+    }
+
+    addToken(NUMBER);
+  }
+
+  private void string() {
+    while (current < length && source.charAt(current) != '"') {
+      if (source.charAt(current) == '\n') line++;
+      current++;
+    }
+
+    // Unterminated string.
+    if (current >= length) {
+      Lox.error(line, "Unterminated string.");
+      return;
+    }
+
+    // The closing ".
+    current++;
+    addToken(STRING);
+  }
+
+  private boolean match(char expected) {
+    if (current >= length) return false;
+    if (source.charAt(current) != expected) return false;
+
+    current++;
+    return true;
+  }
+
+  private char peek() {
+    if (current >= length) return '\0';
+    return source.charAt(current);
+  }
+
+  private char peekNext() {
+    if (current + 1 >= length) return '\0';
+    return source.charAt(current + 1);
+  }
+
+  private static boolean isAlpha(char c) {
+    return (c >= 'a' && c <= 'z') ||
+           (c >= 'A' && c <= 'Z') ||
+            c == '_';
+  }
+
+  private static boolean isAlphaNumeric(char c) {
+    return isAlpha(c) || isDigit(c);
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private void addToken(TokenType type) {
+    tokens.add(type, start, current - start, line);
+  }
+}
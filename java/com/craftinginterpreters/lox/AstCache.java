@@ -0,0 +1,651 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Caches the resolved syntax tree of a script, so running the same script
+// again skips the Scanner, the Parser and the Resolver.
+//
+// When jlox runs with -Dlox.cache=<directory>, the tree is saved in that
+// directory in a file named after the hash of the script. The file holds the
+// lexemes, each one once, then the tree in preorder, each node being a tag
+// followed by its fields, with the scope distance of the variables resolved
+// by the Resolver. A checksum covers everything, so a corrupted or truncated
+// entry is detected and ignored, and the script is parsed again.
+final class AstCache {
+  private static final int MAGIC = 0x4C4F5841; // "LOXA".
+
+  // Bump when the syntax tree or the format changes.
+  private static final int VERSION = 3;
+
+  // Node tags. 0 is a missing node.
+  private static final byte BLOCK = 1;
+  private static final byte CLASS = 2;
+  private static final byte EXPRESSION = 3;
+  private static final byte FUNCTION = 4;
+  private static final byte IF = 5;
+  private static final byte PRINT = 6;
+  private static final byte RETURN = 7;
+  private static final byte VAR = 8;
+  private static final byte WHILE = 9;
+  private static final byte ASSIGN = 10;
+  private static final byte BINARY = 11;
+  private static final byte CALL = 12;
+  private static final byte GET = 13;
+  private static final byte GROUPING = 14;
+  private static final byte LITERAL = 15;
+  private static final byte LOGICAL = 16;
+  private static final byte SET = 17;
+  private static final byte SUPER = 18;
+  private static final byte THIS = 19;
+  private static final byte UNARY = 20;
+  private static final byte VARIABLE = 21;
+  private static final byte YIELD = 22;
+
+  // Value kinds of literals.
+  private static final byte NIL = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+  private static final byte NUMBER = 3;
+  private static final byte STRING = 4;
+
+  // A script loaded from the cache.
+  static final class Entry {
+    final List<Stmt> statements;
+    final Map<Expr, Integer> locals;
+
+    Entry(List<Stmt> statements, Map<Expr, Integer> locals) {
+      this.statements = statements;
+      this.locals = locals;
+    }
+  }
+
+  private final Path file;
+
+  private AstCache(Path file) {
+    this.file = file;
+  }
+
+  // Returns the cache entry of [source], or null if caching is disabled.
+  static AstCache open(ByteBuffer source) {
+    String directory = System.getProperty("lox.cache");
+    if (directory == null) return null;
+
+    return new AstCache(Paths.get(directory, Profile.hash(source) + ".ast"));
+  }
+
+  // Returns the cached tree, or null if there is none or it is unusable.
+  Entry load() {
+    if (!Files.exists(file)) return null;
+
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+      if (buffer.remaining() < 12 || buffer.getInt() != MAGIC ||
+          buffer.getInt() != VERSION) {
+        return null;
+      }
+
+      int length = buffer.remaining() - 8;
+      CRC32 crc = new CRC32();
+      crc.update(buffer.array(), buffer.position(), length);
+      if (buffer.getLong(buffer.position() + length) != crc.getValue()) {
+        return null;
+      }
+
+      return new Reader(buffer.array(), buffer.position(), length).read();
+    } catch (IOException | RuntimeException e) {
+      // A stale or corrupted entry, the script is parsed again.
+      return null;
+    }
+  }
+
+  // Writes the entry to a temporary file and moves it in place, so a
+  // concurrent run never sees a half-written entry.
+  void save(List<Stmt> statements, Map<Expr, Integer> locals) {
+    Path temp = null;
+    try {
+      byte[] payload = new Writer(locals).write(statements);
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+
+      Files.createDirectories(file.getParent());
+      temp = Files.createTempFile(file.getParent(), "ast", ".tmp");
+      try (DataOutputStream out =
+               new DataOutputStream(Files.newOutputStream(temp))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(payload);
+        out.writeLong(crc.getValue());
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      System.err.println("Cannot save syntax tree: " + e.getMessage());
+      if (temp != null) delete(temp);
+    }
+  }
+
+  // Deletes what a failed save left behind.
+  private static void delete(Path temp) {
+    try {
+      Files.deleteIfExists(temp);
+    } catch (IOException e) {
+      // Nothing more to do.
+    }
+  }
+
+  private static class Writer implements Expr.Visitor<Void>,
+                                         Stmt.Visitor<Void> {
+    private final Map<Expr, Integer> locals;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final List<String> stringTable = new ArrayList<>();
+    private final ByteArrayOutputStream tree = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(tree);
+
+    Writer(Map<Expr, Integer> locals) {
+      this.locals = locals;
+    }
+
+    byte[] write(List<Stmt> statements) throws IOException {
+      try {
+        statements(statements);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream header = new DataOutputStream(bytes);
+      header.writeInt(stringTable.size());
+      for (String string : stringTable) {
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        header.writeInt(utf8.length);
+        header.write(utf8);
+      }
+      tree.writeTo(bytes);
+      return bytes.toByteArray();
+    }
+
+    private void writeByte(int value) {
+      try {
+        out.writeByte(value);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private void writeInt(int value) {
+      try {
+        out.writeInt(value);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private void writeDouble(double value) {
+      try {
+        out.writeDouble(value);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private void string(String string) {
+      Integer index = strings.get(string);
+      if (index == null) {
+        index = stringTable.size();
+        strings.put(string, index);
+        stringTable.add(string);
+      }
+      writeInt(index);
+    }
+
+    private void token(Token token) {
+      writeByte(token.type.ordinal());
+      string(token.lexeme);
+      value(token.literal);
+      writeInt(token.line);
+    }
+
+    private void tokens(List<Token> tokens) {
+      writeInt(tokens.size());
+      for (Token token : tokens) {
+        token(token);
+      }
+    }
+
+    private void value(Object value) {
+      if (value == null) {
+        writeByte(NIL);
+      } else if (value instanceof Boolean) {
+        writeByte((boolean)value ? TRUE : FALSE);
+      } else if (value instanceof Double) {
+        writeByte(NUMBER);
+        writeDouble((double)value);
+      } else {
+        writeByte(STRING);
+        string((String)value);
+      }
+    }
+
+    // -1 for a global.
+    private void distance(Expr expr) {
+      Integer distance = locals.get(expr);
+      writeInt(distance == null ? -1 : distance);
+    }
+
+    private void statements(List<? extends Stmt> statements) {
+      writeInt(statements.size());
+      for (Stmt statement : statements) {
+        statement.accept(this);
+      }
+    }
+
+    private void stmt(Stmt stmt) {
+      if (stmt == null) {
+        writeByte(0);
+      } else {
+        stmt.accept(this);
+      }
+    }
+
+    private void expr(Expr expr) {
+      if (expr == null) {
+        writeByte(0);
+      } else {
+        expr.accept(this);
+      }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      writeByte(BLOCK);
+      statements(stmt.statements);
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      writeByte(CLASS);
+      token(stmt.name);
+      expr(stmt.superclass);
+      statements(stmt.methods);
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      writeByte(EXPRESSION);
+      expr(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      writeByte(FUNCTION);
+      token(stmt.name);
+      tokens(stmt.parameters);
+      statements(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      writeByte(IF);
+      expr(stmt.condition);
+      stmt(stmt.thenBranch);
+      stmt(stmt.elseBranch);
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      writeByte(PRINT);
+      expr(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      writeByte(RETURN);
+      token(stmt.keyword);
+      expr(stmt.value);
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      writeByte(VAR);
+      token(stmt.name);
+      expr(stmt.initializer);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      writeByte(WHILE);
+      token(stmt.keyword);
+      expr(stmt.condition);
+      stmt(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+      writeByte(YIELD);
+      token(stmt.keyword);
+      expr(stmt.value);
+      return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      writeByte(ASSIGN);
+      token(expr.name);
+      expr(expr.value);
+      distance(expr);
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      writeByte(BINARY);
+      expr(expr.left);
+      token(expr.operator);
+      expr(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      writeByte(CALL);
+      expr(expr.callee);
+      token(expr.paren);
+      writeInt(expr.arguments.size());
+      for (Expr argument : expr.arguments) {
+        expr(argument);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+      writeByte(GET);
+      expr(expr.object);
+      token(expr.name);
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      writeByte(GROUPING);
+      expr(expr.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      writeByte(LITERAL);
+      value(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      writeByte(LOGICAL);
+      expr(expr.left);
+      token(expr.operator);
+      expr(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+      writeByte(SET);
+      expr(expr.object);
+      token(expr.name);
+      expr(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+      writeByte(SUPER);
+      token(expr.keyword);
+      token(expr.method);
+      distance(expr);
+      return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+      writeByte(THIS);
+      token(expr.keyword);
+      distance(expr);
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      writeByte(UNARY);
+      token(expr.operator);
+      expr(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      writeByte(VARIABLE);
+      token(expr.name);
+      distance(expr);
+      return null;
+    }
+  }
+
+  // Any inconsistency throws an exception, which makes load() ignore the
+  // entry.
+  private static class Reader {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final DataInputStream in;
+    private final int end;
+    private String[] strings;
+    private final Map<Expr, Integer> locals = new HashMap<>();
+
+    Reader(byte[] bytes, int offset, int length) {
+      this.in = new DataInputStream(
+          new ByteArrayInputStream(bytes, offset, length));
+      this.end = length;
+    }
+
+    Entry read() throws IOException {
+      int count = in.readInt();
+      if (count < 0 || count > end) throw new IOException("Bad table.");
+
+      strings = new String[count];
+      for (int i = 0; i < count; i++) {
+        byte[] utf8 = new byte[in.readInt()];
+        in.readFully(utf8);
+        strings[i] = new String(utf8, StandardCharsets.UTF_8).intern();
+      }
+
+      List<Stmt> statements = statements();
+      if (in.read() != -1) throw new IOException("Trailing bytes.");
+      return new Entry(statements, locals);
+    }
+
+    private String string() throws IOException {
+      return strings[in.readInt()];
+    }
+
+    private int count() throws IOException {
+      int count = in.readInt();
+      if (count < 0 || count > end) throw new IOException("Bad count.");
+      return count;
+    }
+
+    private Token token() throws IOException {
+      TokenType type = TYPES[in.readUnsignedByte()];
+      String lexeme = string();
+      Object literal = value();
+      return new Token(type, lexeme, literal, in.readInt());
+    }
+
+    private List<Token> tokens() throws IOException {
+      int count = count();
+      List<Token> tokens = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        tokens.add(token());
+      }
+      return tokens;
+    }
+
+    private Object value() throws IOException {
+      byte kind = in.readByte();
+      switch (kind) {
+        case NIL: return null;
+        case FALSE: return false;
+        case TRUE: return true;
+        case NUMBER: return in.readDouble();
+        case STRING: return string();
+        default: throw new IOException("Bad value.");
+      }
+    }
+
+    private <E extends Expr> E resolved(E expr) throws IOException {
+      int distance = in.readInt();
+      if (distance < -1) throw new IOException("Bad distance.");
+      if (distance != -1) locals.put(expr, distance);
+      return expr;
+    }
+
+    private List<Stmt> statements() throws IOException {
+      int count = count();
+      List<Stmt> statements = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        statements.add(required(stmt()));
+      }
+      return statements;
+    }
+
+    private static <T> T required(T node) throws IOException {
+      if (node == null) throw new IOException("Missing node.");
+      return node;
+    }
+
+    private Stmt stmt() throws IOException {
+      byte tag = in.readByte();
+      switch (tag) {
+        case 0: return null;
+        case BLOCK: return new Stmt.Block(statements());
+        case CLASS: {
+          Token name = token();
+          Expr superclass = expr();
+          int count = count();
+          List<Stmt.Function> methods = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) {
+            methods.add((Stmt.Function)required(stmt()));
+          }
+          return new Stmt.Class(name, superclass, methods);
+        }
+        case EXPRESSION: return new Stmt.Expression(required(expr()));
+        case FUNCTION: {
+          Token name = token();
+          List<Token> parameters = tokens();
+          return new Stmt.Function(name, parameters, statements());
+        }
+        case IF: {
+          Expr condition = required(expr());
+          Stmt thenBranch = required(stmt());
+          return new Stmt.If(condition, thenBranch, stmt());
+        }
+        case PRINT: return new Stmt.Print(required(expr()));
+        case RETURN: {
+          Token keyword = token();
+          return new Stmt.Return(keyword, expr());
+        }
+        case VAR: {
+          Token name = token();
+          return new Stmt.Var(name, expr());
+        }
+        case WHILE: {
+          Token keyword = token();
+          Expr condition = required(expr());
+          return new Stmt.While(keyword, condition, required(stmt()));
+        }
+        case YIELD: {
+          Token keyword = token();
+          return new Stmt.Yield(keyword, expr());
+        }
+        default: throw new IOException("Bad statement.");
+      }
+    }
+
+    private Expr expr() throws IOException {
+      byte tag = in.readByte();
+      switch (tag) {
+        case 0: return null;
+        case ASSIGN: {
+          Token name = token();
+          return resolved(new Expr.Assign(name, required(expr())));
+        }
+        case BINARY: {
+          Expr left = required(expr());
+          Token operator = token();
+          return new Expr.Binary(left, operator, required(expr()));
+        }
+        case CALL: {
+          Expr callee = required(expr());
+          Token paren = token();
+          int count = count();
+          List<Expr> arguments = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) {
+            arguments.add(required(expr()));
+          }
+          return new Expr.Call(callee, paren, arguments);
+        }
+        case GET: {
+          Expr object = required(expr());
+          return new Expr.Get(object, token());
+        }
+        case GROUPING: return new Expr.Grouping(required(expr()));
+        case LITERAL: return new Expr.Literal(value());
+        case LOGICAL: {
+          Expr left = required(expr());
+          Token operator = token();
+          return new Expr.Logical(left, operator, required(expr()));
+        }
+        case SET: {
+          Expr object = required(expr());
+          Token name = token();
+          return new Expr.Set(object, name, required(expr()));
+        }
+        case SUPER: {
+          Token keyword = token();
+          return resolved(new Expr.Super(keyword, token()));
+        }
+        case THIS: return resolved(new Expr.This(token()));
+        case UNARY: {
+          Token operator = token();
+          return new Expr.Unary(operator, required(expr()));
+        }
+        case VARIABLE: return resolved(new Expr.Variable(token()));
+        default: throw new IOException("Bad expression.");
+      }
+    }
+  }
+}
@@ -109,6 +109,12 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     return parenthesize("return", stmt.value);
   }
 //< Functions not-yet
+
+  @Override
+  public String visitYieldStmt(Stmt.Yield stmt) {
+    if (stmt.value == null) return "(yield)";
+    return parenthesize("yield", stmt.value);
+  }
 //> Statements and State omit
 
   @Override
@@ -0,0 +1,270 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// Binds each use of a local variable to its declaration by tracking the
+// scopes of a program while it is walked in order, and reports the misuses of
+// return, this and super. Used by the Resolver, which walks a parsed tree,
+// and by the Parser, which can resolve as it parses.
+//
+// The scopes are a flat array of names, innermost last, instead of a stack of
+// maps: a scope rarely holds more than a few names, and looking one up is a
+// short backward scan.
+final class Binder {
+  enum FunctionType {
+    NONE,
+    FUNCTION,
+    METHOD,
+    INITIALIZER
+  }
+
+  enum ClassType {
+    NONE,
+    CLASS,
+    SUBCLASS
+  }
+
+  private final Map<Expr, Integer> locals;
+
+  // The declared names, the scope of each one, and whether it is defined.
+  private String[] names = new String[16];
+  private int[] scopes = new int[16];
+  private boolean[] defined = new boolean[16];
+  private int count = 0;
+
+  // The index in [names] of the first name of each scope.
+  private int[] starts = new int[8];
+  private int depth = 0;
+
+  private FunctionType currentFunction = FunctionType.NONE;
+  private ClassType currentClass = ClassType.NONE;
+
+  // The Parser resolves before it knows whether the program has a syntax
+  // error, which makes the resolution errors moot, so they wait.
+  private final boolean deferErrors;
+  private final List<Token> errorTokens = new ArrayList<>();
+  private final List<String> errorMessages = new ArrayList<>();
+  private boolean hadError = false;
+
+  Binder(Map<Expr, Integer> locals, boolean deferErrors) {
+    this.locals = locals;
+    this.deferErrors = deferErrors;
+  }
+
+  // A copy of the current state, to resolve a LazyBody later.
+  Binder copy() {
+    Binder binder = new Binder(locals, deferErrors);
+    binder.names = Arrays.copyOf(names, names.length);
+    binder.scopes = Arrays.copyOf(scopes, scopes.length);
+    binder.defined = Arrays.copyOf(defined, defined.length);
+    binder.count = count;
+    binder.starts = Arrays.copyOf(starts, starts.length);
+    binder.depth = depth;
+    binder.currentFunction = currentFunction;
+    binder.currentClass = currentClass;
+    return binder;
+  }
+
+  Map<Expr, Integer> locals() {
+    return locals;
+  }
+
+  // Whether a misuse has been found, reported or not.
+  boolean hadError() {
+    return hadError;
+  }
+
+  void reportErrors() {
+    for (int i = 0; i < errorTokens.size(); i++) {
+      Lox.error(errorTokens.get(i), errorMessages.get(i));
+    }
+    errorTokens.clear();
+    errorMessages.clear();
+  }
+
+  private void error(Token token, String message) {
+    hadError = true;
+    if (deferErrors) {
+      errorTokens.add(token);
+      errorMessages.add(message);
+    } else {
+      Lox.error(token, message);
+    }
+  }
+
+  void beginScope() {
+    if (depth == starts.length) {
+      starts = Arrays.copyOf(starts, depth * 2);
+    }
+    starts[depth++] = count;
+  }
+
+  void endScope() {
+    int end = count;
+    count = starts[--depth];
+    Arrays.fill(names, count, end, null);
+  }
+
+  FunctionType beginFunction(FunctionType type) {
+    FunctionType enclosingFunction = currentFunction;
+    currentFunction = type;
+    beginScope();
+    return enclosingFunction;
+  }
+
+  void endFunction(FunctionType enclosingFunction) {
+    endScope();
+    currentFunction = enclosingFunction;
+  }
+
+  ClassType beginClass() {
+    ClassType enclosingClass = currentClass;
+    currentClass = ClassType.CLASS;
+    return enclosingClass;
+  }
+
+  void superclass(Expr.Variable superclass) {
+    currentClass = ClassType.SUBCLASS;
+    variable(superclass);
+    beginScope();
+    add("super", true);
+  }
+
+  // Pushes the implicit scope that binds "this".
+  FunctionType beginMethod(Token name) {
+    beginScope();
+    add("this", true);
+
+    FunctionType declaration = FunctionType.METHOD;
+    if (name.lexeme.equals("init")) {
+      declaration = FunctionType.INITIALIZER;
+    }
+    return beginFunction(declaration);
+  }
+
+  void endMethod(FunctionType enclosingFunction) {
+    endFunction(enclosingFunction);
+    endScope();
+  }
+
+  void endClass(ClassType enclosingClass) {
+    if (currentClass == ClassType.SUBCLASS) endScope();
+    currentClass = enclosingClass;
+  }
+
+  void declare(Token name) {
+    // Don't need to track top level variables.
+    if (depth == 0) return;
+
+    int index = find(name.lexeme, starts[depth - 1]);
+    if (index != -1) {
+      error(name,
+          "Variable with this name already declared in this scope.");
+      defined[index] = false;
+      return;
+    }
+    add(name.lexeme, false);
+  }
+
+  void define(Token name) {
+    // Don't need to track top level variables.
+    if (depth == 0) return;
+
+    int index = find(name.lexeme, starts[depth - 1]);
+    if (index == -1) {
+      add(name.lexeme, true);
+    } else {
+      defined[index] = true;
+    }
+  }
+
+  private void add(String name, boolean isDefined) {
+    if (count == names.length) {
+      names = Arrays.copyOf(names, count * 2);
+      scopes = Arrays.copyOf(scopes, count * 2);
+      defined = Arrays.copyOf(defined, count * 2);
+    }
+    names[count] = name;
+    scopes[count] = depth - 1;
+    defined[count] = isDefined;
+    count++;
+  }
+
+  // Returns the index of the innermost [name] declared at or after [from], or
+  // -1.
+  private int find(String name, int from) {
+    for (int i = count - 1; i >= from; i--) {
+      if (names[i].equals(name)) return i;
+    }
+    return -1;
+  }
+
+  void variable(Expr.Variable expr) {
+    if (depth != 0) {
+      int index = find(expr.name.lexeme, starts[depth - 1]);
+      if (index != -1 && !defined[index]) {
+        error(expr.name,
+            "Cannot read local variable in its own initializer.");
+      }
+    }
+
+    resolveLocal(expr, expr.name);
+  }
+
+  void assign(Expr.Assign expr) {
+    resolveLocal(expr, expr.name);
+  }
+
+  void thisExpr(Expr.This expr) {
+    if (currentClass == ClassType.NONE) {
+      error(expr.keyword,
+          "Cannot use 'this' outside of a class.");
+    } else {
+      resolveLocal(expr, expr.keyword);
+    }
+  }
+
+  void superExpr(Expr.Super expr) {
+    if (currentClass == ClassType.NONE) {
+      error(expr.keyword,
+          "Cannot use 'super' outside of a class.");
+    } else if (currentClass != ClassType.SUBCLASS) {
+      error(expr.keyword,
+          "Cannot use 'super' in a class with no superclass.");
+    } else {
+      resolveLocal(expr, expr.keyword);
+    }
+  }
+
+  // Checked before the value is resolved.
+  void returnStatement(Token keyword, boolean hasValue) {
+    if (currentFunction == FunctionType.NONE) {
+      error(keyword, "Cannot return from top-level code.");
+    }
+
+    if (hasValue && currentFunction == FunctionType.INITIALIZER) {
+      error(keyword, "Cannot return a value from an initializer.");
+    }
+  }
+
+  // A function that yields is a generator, see LoxGenerator.
+  void yieldStatement(Token keyword) {
+    if (currentFunction == FunctionType.NONE) {
+      error(keyword, "Cannot yield from top-level code.");
+    }
+
+    if (currentFunction == FunctionType.INITIALIZER) {
+      error(keyword, "Cannot yield from an initializer.");
+    }
+  }
+
+  private void resolveLocal(Expr expr, Token name) {
+    int index = find(name.lexeme, 0);
+    if (index != -1) locals.put(expr, depth - 1 - scopes[index]);
+
+    // Not found. Assume it is global.
+  }
+}
@@ -0,0 +1,98 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counts the steps of a script, its calls and the iterations of its loops,
+// for a Context that limits them or shares the cores with other scripts
+// through a Scheduler. Every [quantum] steps, the script gives its turn to
+// the next one waiting on the Scheduler. After [limit] steps, it is stopped
+// with a RuntimeError. The tasks and the parallel slices of the script
+// count their steps toward the same limit.
+//
+// Without a Budget, an Interpreter only tests that it has none.
+final class Budget {
+  // How often the limit is checked without a Scheduler.
+  static final int QUANTUM = 10000;
+
+  private final Scheduler scheduler;
+  private final int quantum;
+  private final long limit;
+
+  // The steps of the quantum, and those before the end of it.
+  private int granted;
+  private int left;
+
+  // The steps of the previous quanta, of this Budget and of its forks.
+  private final AtomicLong used;
+
+  Budget(Scheduler scheduler, int quantum, long limit) {
+    this(scheduler, quantum, limit, new AtomicLong());
+  }
+
+  private Budget(Scheduler scheduler, int quantum, long limit,
+                 AtomicLong used) {
+    this.scheduler = scheduler;
+    this.quantum = quantum;
+    this.limit = limit;
+    this.used = used;
+    grant(used.get());
+  }
+
+  // The budget of a task spawned by the script, see Concurrency, or of a
+  // slice of parallelMap or parallelReduce, see Parallel. Its steps count
+  // toward the same limit, so the script cannot get around it by spreading
+  // its work. The Scheduler does not apply: its thread is not one of those
+  // taking turns.
+  Budget fork() {
+    return new Budget(null, quantum, limit, used);
+  }
+
+  // Counts the steps of the current quantum, once a fork is done: most
+  // slices never use up their first one.
+  void end() {
+    used.addAndGet(granted - left);
+    granted = 0;
+    left = 0;
+  }
+
+  // The script gives up its turn while its thread waits for another one,
+  // in join(), receive() or await() for example, so the scripts of the
+  // other Contexts run meanwhile.
+  void beginWait() {
+    if (scheduler != null) scheduler.end();
+  }
+
+  void endWait() {
+    if (scheduler != null) scheduler.begin();
+  }
+
+  void step() {
+    if (--left <= 0) next(null);
+  }
+
+  // A step of [loop], whose keyword is the line of the error.
+  void step(Stmt.While loop) {
+    if (--left <= 0) next(loop.keyword);
+  }
+
+  private void next(Token token) {
+    long total = used.addAndGet(granted);
+    if (total >= limit) {
+      left = 0;
+      granted = 0;
+      // Without a token, for a call, the call site reports it at its
+      // line, see Interpreter.visitCallExpr.
+      throw new RuntimeError(token, "Step limit exceeded.");
+    }
+
+    if (scheduler != null) scheduler.yieldTurn();
+    grant(total);
+  }
+
+  // Each thread takes its steps a quantum at a time, so the script may go
+  // over the limit by a quantum per thread.
+  private void grant(long total) {
+    granted = (int)Math.max(1, Math.min(quantum, limit - total));
+    left = granted;
+  }
+}
@@ -0,0 +1,88 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// A program made of several scripts, run as if they were concatenated in the
+// order they are given.
+//
+// Each script is scanned and parsed on its own thread of a ForkJoinPool, the
+// top-level statements are then merged in script order, so the program is
+// the same whatever the order the scripts finish in. The syntax errors of a
+// script are collected while it is parsed, see Lox.errorLog, and reported
+// together with its path, in script order too.
+final class Bundle {
+  private Bundle() {}
+
+  // Returns the statements of the program, or null if a script has a syntax
+  // error.
+  static List<Stmt> parse(String[] paths, ForkJoinPool pool)
+      throws IOException {
+    List<ForkJoinTask<Script>> tasks = new ArrayList<>();
+    for (String path : paths) {
+      tasks.add(pool.submit(() -> parse(path)));
+    }
+
+    List<Stmt> statements = new ArrayList<>();
+    boolean hadError = false;
+    for (ForkJoinTask<Script> task : tasks) {
+      Script script;
+      try {
+        script = task.join();
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+
+      for (String error : script.errors) {
+        System.err.println(script.path + ": " + error);
+      }
+      if (!script.errors.isEmpty()) hadError = true;
+      statements.addAll(script.statements);
+    }
+
+    if (hadError) {
+      Lox.hadError = true;
+      return null;
+    }
+    return statements;
+  }
+
+  private static final class Script {
+    final String path;
+    final List<Stmt> statements;
+    final List<String> errors;
+
+    Script(String path, List<Stmt> statements, List<String> errors) {
+      this.path = path;
+      this.statements = statements;
+      this.errors = errors;
+    }
+  }
+
+  private static Script parse(String path) {
+    String source;
+    try {
+      source = new String(Files.readAllBytes(Paths.get(path)),
+          Charset.defaultCharset());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    List<String> errors = new ArrayList<>();
+    Lox.errorLog.set(errors);
+    try {
+      List<Token> tokens = new ArrayScanner(source).scanTokens();
+      List<Stmt> statements = new Parser(tokens).parse();
+      return new Script(path, statements, errors);
+    } finally {
+      Lox.errorLog.remove();
+    }
+  }
+}
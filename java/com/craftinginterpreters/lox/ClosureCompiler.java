@@ -0,0 +1,888 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiles resolved statements into trees of closures, a faster tier than the
+// Interpreter: the scope distance of each variable is looked up once, at
+// compile time, instead of at each access, and each operator gets its own
+// node instead of going through a switch at each evaluation.
+//
+// The code is specialized for what the Feedback has seen at runtime, the
+// operand types of the operators and the functions called at each call site.
+// Those functions are inlined behind a guard that falls back to a regular
+// call when the callee is not the expected one.
+//
+// A function that declares no function or class cannot be captured, so its
+// parameters and local variables live in the slots of an array, the frame,
+// instead of in a chain of Environments. Everything else uses the same
+// Environments as the Interpreter, so both tiers can call each other and
+// share closures freely.
+class ClosureCompiler implements Expr.Visitor<ClosureCompiler.ExprNode>,
+                                 Stmt.Visitor<ClosureCompiler.StmtNode> {
+  interface ExprNode {
+    Object evaluate(Interpreter interpreter, Environment environment,
+                    Object[] frame);
+  }
+
+  // Returns NEXT if the statement completes normally, or the returned value
+  // if it executes a return statement.
+  interface StmtNode {
+    Object execute(Interpreter interpreter, Environment environment,
+                   Object[] frame);
+  }
+
+  interface FunctionNode {
+    Object invoke(Interpreter interpreter, Environment closure,
+                  List<Object> arguments);
+  }
+
+  // What the code to compile has seen at runtime, a Profile or a Trace.
+  interface Feedback {
+    // The Profile bits of the operand types seen by [expr], 0 if unknown.
+    int operandTypes(Expr.Binary expr);
+
+    // The only function called by [expr], or null.
+    Stmt.Function target(Expr.Call expr);
+
+    // The only class of the instances whose method is called by [expr], or
+    // null.
+    LoxClass receiver(Expr.Call expr);
+  }
+
+  static final Object NEXT = new Object();
+
+  // Bounds the code growth of nested inlining.
+  private static final int MAX_INLINING_DEPTH = 4;
+
+  // A compiled function body.
+  private static final class Body {
+    final List<Token> parameters;
+    final StmtNode node;
+
+    // Whether the parameters are in an Environment instead of in the frame.
+    final boolean inEnvironment;
+
+    // For an inlined method, whether "this" is in the first slot of the
+    // frame instead of in an Environment.
+    final boolean thisInFrame;
+    final int frameSize;
+
+    Body(List<Token> parameters, StmtNode node, boolean inEnvironment,
+         boolean thisInFrame, int frameSize) {
+      this.parameters = parameters;
+      this.node = node;
+      this.inEnvironment = inEnvironment;
+      this.thisInFrame = thisInFrame;
+      this.frameSize = frameSize;
+    }
+
+    Object invoke(Interpreter interpreter, Environment closure,
+                  List<Object> arguments) {
+      Environment environment =
+          inEnvironment ? new Environment(closure) : closure;
+      Object[] frame = frameSize == 0 ? null : new Object[frameSize];
+      for (int i = 0; i < parameters.size(); i++) {
+        bind(i, arguments.get(i), environment, frame);
+      }
+      return run(interpreter, environment, frame);
+    }
+
+    // Evaluates the arguments of an inlined call directly into the
+    // parameters, without the list of a regular call. [receiver] is the
+    // instance "this" is bound to, or null for a function.
+    Object inline(Interpreter interpreter, Environment closure,
+                  LoxInstance receiver, ExprNode[] arguments,
+                  Environment callerEnvironment, Object[] callerFrame) {
+      if (receiver != null && !thisInFrame) {
+        closure = new Environment(closure);
+        closure.define("this", receiver);
+      }
+
+      Environment environment =
+          inEnvironment ? new Environment(closure) : closure;
+      Object[] frame = frameSize == 0 ? null : new Object[frameSize];
+      if (thisInFrame) frame[0] = receiver;
+      for (int i = 0; i < arguments.length; i++) {
+        Object value = arguments[i].evaluate(interpreter,
+            callerEnvironment, callerFrame);
+        if (i < parameters.size()) bind(i, value, environment, frame);
+      }
+      return run(interpreter, environment, frame);
+    }
+
+    private void bind(int parameter, Object value, Environment environment,
+                      Object[] frame) {
+      if (inEnvironment) {
+        environment.define(parameters.get(parameter).lexeme, value);
+      } else {
+        frame[thisInFrame ? parameter + 1 : parameter] = value;
+      }
+    }
+
+    private Object run(Interpreter interpreter, Environment environment,
+                       Object[] frame) {
+      Object result = node.execute(interpreter, environment, frame);
+      return result == NEXT ? null : result;
+    }
+  }
+
+  private static class Scope {
+    final Scope enclosing;
+    final Map<String, Integer> slots = new HashMap<>();
+
+    Scope(Scope enclosing) {
+      this.enclosing = enclosing;
+    }
+  }
+
+  private final Map<Expr, Integer> locals;
+  private final Feedback feedback;
+
+  // The functions being inlined, innermost last.
+  private final List<Stmt.Function> inlining = new ArrayList<>();
+
+  // The scopes of the function being compiled whose variables are in frame
+  // slots, or null if they are in Environments.
+  private Scope scope;
+  private int depth;
+  private int frameSize;
+
+  ClosureCompiler(Map<Expr, Integer> locals, Feedback feedback) {
+    this.locals = locals;
+    this.feedback = feedback;
+  }
+
+  FunctionNode compileFunction(Stmt.Function function) {
+    return compileBody(function, false)::invoke;
+  }
+
+  // If [bindsThis], the function is an inlined method and "this" gets a
+  // frame slot when there is a frame.
+  private Body compileBody(Stmt.Function function, boolean bindsThis) {
+    // The body may be inlined in the middle of another function.
+    Scope enclosingScope = scope;
+    int enclosingDepth = depth;
+    int enclosingFrameSize = frameSize;
+    scope = null;
+    depth = 0;
+    frameSize = 0;
+
+    try {
+      if (declaresClosures(function.body)) {
+        StmtNode body = sequence(function.body);
+        return new Body(function.parameters, body, true, false, frameSize);
+      }
+
+      if (bindsThis) {
+        beginScope();
+        declare("this");
+      }
+      beginScope();
+      for (Token parameter : function.parameters) {
+        declare(parameter.lexeme);
+      }
+      StmtNode body = sequence(function.body);
+
+      return new Body(function.parameters, body, false, bindsThis,
+          frameSize);
+    } finally {
+      scope = enclosingScope;
+      depth = enclosingDepth;
+      frameSize = enclosingFrameSize;
+    }
+  }
+
+  // Compiles a loop for on-stack replacement: the compiled loop continues
+  // with the Environment of the interpreted one, starting with the condition.
+  StmtNode compileLoop(Stmt.While loop) {
+    StmtNode node = compile(loop);
+    int size = frameSize;
+    if (size == 0) return node;
+
+    return (interpreter, environment, frame) ->
+        node.execute(interpreter, environment, new Object[size]);
+  }
+
+  private static boolean declaresClosures(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      if (declaresClosures(statement)) return true;
+    }
+    return false;
+  }
+
+  private static boolean declaresClosures(Stmt stmt) {
+    if (stmt instanceof Stmt.Function || stmt instanceof Stmt.Class) {
+      return true;
+    }
+    if (stmt instanceof Stmt.Block) {
+      return declaresClosures(((Stmt.Block)stmt).statements);
+    }
+    if (stmt instanceof Stmt.If) {
+      Stmt.If ifStmt = (Stmt.If)stmt;
+      return declaresClosures(ifStmt.thenBranch) ||
+          (ifStmt.elseBranch != null && declaresClosures(ifStmt.elseBranch));
+    }
+    if (stmt instanceof Stmt.While) {
+      return declaresClosures(((Stmt.While)stmt).body);
+    }
+    return false;
+  }
+
+  private void beginScope() {
+    scope = new Scope(scope);
+    depth++;
+  }
+
+  private void endScope() {
+    scope = scope.enclosing;
+    depth--;
+  }
+
+  private int declare(String name) {
+    int slot = frameSize++;
+    scope.slots.put(name, slot);
+    return slot;
+  }
+
+  // Returns the frame slot of a variable declared [distance] scopes away.
+  private int slot(int distance, String name) {
+    Scope scope = this.scope;
+    for (int i = 0; i < distance; i++) {
+      scope = scope.enclosing;
+    }
+    return scope.slots.get(name);
+  }
+
+  private StmtNode compile(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private ExprNode compile(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private StmtNode sequence(List<Stmt> statements) {
+    StmtNode[] nodes = new StmtNode[statements.size()];
+    for (int i = 0; i < nodes.length; i++) {
+      nodes[i] = compile(statements.get(i));
+    }
+
+    if (nodes.length == 1) return nodes[0];
+    return (interpreter, environment, frame) -> {
+      for (StmtNode node : nodes) {
+        Object result = node.execute(interpreter, environment, frame);
+        if (result != NEXT) return result;
+      }
+      return NEXT;
+    };
+  }
+
+  @Override
+  public StmtNode visitBlockStmt(Stmt.Block stmt) {
+    if (scope != null) {
+      beginScope();
+      StmtNode body = sequence(stmt.statements);
+      endScope();
+      return body;
+    }
+
+    // A block that declares no closure keeps its variables in the frame
+    // even when the enclosing ones are in Environments.
+    if (!declaresClosures(stmt.statements)) {
+      scope = new Scope(null);
+      depth = 1;
+      StmtNode body = sequence(stmt.statements);
+      scope = null;
+      depth = 0;
+      return body;
+    }
+
+    StmtNode body = sequence(stmt.statements);
+    return (interpreter, environment, frame) ->
+        body.execute(interpreter, new Environment(environment), frame);
+  }
+
+  @Override
+  public StmtNode visitClassStmt(Stmt.Class stmt) {
+    Token name = stmt.name;
+    ExprNode superclassNode =
+        stmt.superclass == null ? null : compile(stmt.superclass);
+    List<Stmt.Function> methods = stmt.methods;
+
+    return (interpreter, environment, frame) -> {
+      environment.define(name.lexeme, null);
+
+      Object superclass = null;
+      Environment enclosing = environment;
+      if (superclassNode != null) {
+        superclass = superclassNode.evaluate(interpreter, environment, frame);
+        if (!(superclass instanceof LoxClass)) {
+          throw new RuntimeError(name, "Superclass must be a class.");
+        }
+
+        enclosing = new Environment(environment);
+        enclosing.define("super", superclass);
+      }
+
+      Map<String, LoxFunction> functions = new HashMap<>();
+      for (Stmt.Function method : methods) {
+        functions.put(method.name.lexeme, interpreter.function(method,
+            enclosing, method.name.lexeme.equals("init")));
+      }
+
+      LoxClass klass = new LoxClass(name.lexeme,
+          (LoxClass)superclass, functions);
+      environment.assign(name, klass);
+      return NEXT;
+    };
+  }
+
+  @Override
+  public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+    ExprNode expression = compile(stmt.expression);
+    return (interpreter, environment, frame) -> {
+      expression.evaluate(interpreter, environment, frame);
+      return NEXT;
+    };
+  }
+
+  @Override
+  public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+    return (interpreter, environment, frame) -> {
+      environment.define(stmt.name.lexeme, null);
+      environment.assign(stmt.name,
+          interpreter.function(stmt, environment, false));
+      return NEXT;
+    };
+  }
+
+  @Override
+  public StmtNode visitIfStmt(Stmt.If stmt) {
+    ExprNode condition = compile(stmt.condition);
+    StmtNode thenBranch = compile(stmt.thenBranch);
+    if (stmt.elseBranch == null) {
+      return (interpreter, environment, frame) -> {
+        Object value = condition.evaluate(interpreter, environment, frame);
+        if (interpreter.isTruthy(value)) {
+          return thenBranch.execute(interpreter, environment, frame);
+        }
+        return NEXT;
+      };
+    }
+
+    StmtNode elseBranch = compile(stmt.elseBranch);
+    return (interpreter, environment, frame) -> {
+      Object value = condition.evaluate(interpreter, environment, frame);
+      if (interpreter.isTruthy(value)) {
+        return thenBranch.execute(interpreter, environment, frame);
+      }
+      return elseBranch.execute(interpreter, environment, frame);
+    };
+  }
+
+  @Override
+  public StmtNode visitPrintStmt(Stmt.Print stmt) {
+    ExprNode expression = compile(stmt.expression);
+    return (interpreter, environment, frame) -> {
+      Object value = expression.evaluate(interpreter, environment, frame);
+      interpreter.out.println(value);
+      return NEXT;
+    };
+  }
+
+  @Override
+  public StmtNode visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value == null) return (interpreter, environment, frame) -> null;
+
+    ExprNode value = compile(stmt.value);
+    return value::evaluate;
+  }
+
+  @Override
+  public StmtNode visitVarStmt(Stmt.Var stmt) {
+    ExprNode initializer =
+        stmt.initializer == null ? null : compile(stmt.initializer);
+
+    if (scope != null) {
+      int slot = declare(stmt.name.lexeme);
+      if (initializer == null) {
+        return (interpreter, environment, frame) -> {
+          frame[slot] = null;
+          return NEXT;
+        };
+      }
+
+      return (interpreter, environment, frame) -> {
+        frame[slot] = initializer.evaluate(interpreter, environment, frame);
+        return NEXT;
+      };
+    }
+
+    String name = stmt.name.lexeme;
+    if (initializer == null) {
+      return (interpreter, environment, frame) -> {
+        environment.define(name, null);
+        return NEXT;
+      };
+    }
+
+    return (interpreter, environment, frame) -> {
+      environment.define(name,
+          initializer.evaluate(interpreter, environment, frame));
+      return NEXT;
+    };
+  }
+
+  @Override
+  public StmtNode visitWhileStmt(Stmt.While stmt) {
+    ExprNode condition = compile(stmt.condition);
+    StmtNode body = compile(stmt.body);
+    return (interpreter, environment, frame) -> {
+      while (interpreter.isTruthy(
+          condition.evaluate(interpreter, environment, frame))) {
+        Object result = body.execute(interpreter, environment, frame);
+        if (result != NEXT) return result;
+        if (interpreter.budget != null) interpreter.budget.step(stmt);
+      }
+      return NEXT;
+    };
+  }
+
+  @Override
+  public StmtNode visitYieldStmt(Stmt.Yield stmt) {
+    // The body of a generator is never compiled, see LoxFunction.
+    throw new AssertionError();
+  }
+
+  @Override
+  public ExprNode visitAssignExpr(Expr.Assign expr) {
+    ExprNode value = compile(expr.value);
+    Token name = expr.name;
+
+    Integer distance = locals.get(expr);
+    if (distance == null) {
+      return (interpreter, environment, frame) -> {
+        Object result = value.evaluate(interpreter, environment, frame);
+        interpreter.globals.assign(name, result);
+        return result;
+      };
+    }
+
+    if (distance < depth) {
+      int slot = slot(distance, name.lexeme);
+      return (interpreter, environment, frame) ->
+          frame[slot] = value.evaluate(interpreter, environment, frame);
+    }
+
+    int hops = distance - depth;
+    return (interpreter, environment, frame) -> {
+      Object result = value.evaluate(interpreter, environment, frame);
+      environment.assignAt(hops, name, result);
+      return result;
+    };
+  }
+
+  @Override
+  public ExprNode visitBinaryExpr(Expr.Binary expr) {
+    ExprNode left = compile(expr.left);
+    ExprNode right = compile(expr.right);
+    Token operator = expr.operator;
+
+    switch (operator.type) {
+      case BANG_EQUAL:
+        return (interpreter, environment, frame) -> !interpreter.isEqual(
+            left.evaluate(interpreter, environment, frame),
+            right.evaluate(interpreter, environment, frame));
+      case EQUAL_EQUAL:
+        return (interpreter, environment, frame) -> interpreter.isEqual(
+            left.evaluate(interpreter, environment, frame),
+            right.evaluate(interpreter, environment, frame));
+      case GREATER:
+        return (interpreter, environment, frame) -> {
+          Object a = left.evaluate(interpreter, environment, frame);
+          Object b = right.evaluate(interpreter, environment, frame);
+          if (a instanceof Double && b instanceof Double) {
+            return (double)a > (double)b;
+          }
+          throw numberOperands(operator);
+        };
+      case GREATER_EQUAL:
+        return (interpreter, environment, frame) -> {
+          Object a = left.evaluate(interpreter, environment, frame);
+          Object b = right.evaluate(interpreter, environment, frame);
+          if (a instanceof Double && b instanceof Double) {
+            return (double)a >= (double)b;
+          }
+          throw numberOperands(operator);
+        };
+      case LESS:
+        return (interpreter, environment, frame) -> {
+          Object a = left.evaluate(interpreter, environment, frame);
+          Object b = right.evaluate(interpreter, environment, frame);
+          if (a instanceof Double && b instanceof Double) {
+            return (double)a < (double)b;
+          }
+          throw numberOperands(operator);
+        };
+      case LESS_EQUAL:
+        return (interpreter, environment, frame) -> {
+          Object a = left.evaluate(interpreter, environment, frame);
+          Object b = right.evaluate(interpreter, environment, frame);
+          if (a instanceof Double && b instanceof Double) {
+            return (double)a <= (double)b;
+          }
+          throw numberOperands(operator);
+        };
+      case MINUS:
+        return (interpreter, environment, frame) -> {
+          Object a = left.evaluate(interpreter, environment, frame);
+          Object b = right.evaluate(interpreter, environment, frame);
+          if (a instanceof Double && b instanceof Double) {
+            return (double)a - (double)b;
+          }
+          throw numberOperands(operator);
+        };
+      case PLUS:
+        return plus(left, operator, right,
+            feedback == null ? 0 : feedback.operandTypes(expr));
+      case SLASH:
+        return (interpreter, environment, frame) -> {
+          Object a = left.evaluate(interpreter, environment, frame);
+          Object b = right.evaluate(interpreter, environment, frame);
+          if (a instanceof Double && b instanceof Double) {
+            return (double)a / (double)b;
+          }
+          throw numberOperands(operator);
+        };
+      case STAR:
+        return (interpreter, environment, frame) -> {
+          Object a = left.evaluate(interpreter, environment, frame);
+          Object b = right.evaluate(interpreter, environment, frame);
+          if (a instanceof Double && b instanceof Double) {
+            return (double)a * (double)b;
+          }
+          throw numberOperands(operator);
+        };
+    }
+
+    // Unreachable.
+    throw new AssertionError(operator.type);
+  }
+
+  // Tests first for the operand types the feedback has seen.
+  private static ExprNode plus(ExprNode left, Token operator, ExprNode right,
+                               int operandTypes) {
+    if (operandTypes == Profile.STRING) {
+      return (interpreter, environment, frame) -> {
+        Object a = left.evaluate(interpreter, environment, frame);
+        Object b = right.evaluate(interpreter, environment, frame);
+        if (a instanceof String && b instanceof String) {
+          return (String)a + (String)b;
+        }
+        if (a instanceof Double && b instanceof Double) {
+          return (double)a + (double)b;
+        }
+        throw plusOperands(operator);
+      };
+    }
+
+    return (interpreter, environment, frame) -> {
+      Object a = left.evaluate(interpreter, environment, frame);
+      Object b = right.evaluate(interpreter, environment, frame);
+      if (a instanceof Double && b instanceof Double) {
+        return (double)a + (double)b;
+      }
+      if (a instanceof String && b instanceof String) {
+        return (String)a + (String)b;
+      }
+      throw plusOperands(operator);
+    };
+  }
+
+  private static RuntimeError numberOperands(Token operator) {
+    return new RuntimeError(operator, "Operands must be numbers.");
+  }
+
+  private static RuntimeError plusOperands(Token operator) {
+    return new RuntimeError(operator,
+        "Operands must be two numbers or two strings.");
+  }
+
+  @Override
+  public ExprNode visitCallExpr(Expr.Call expr) {
+    ExprNode[] arguments = new ExprNode[expr.arguments.size()];
+    for (int i = 0; i < arguments.length; i++) {
+      arguments[i] = compile(expr.arguments.get(i));
+    }
+    Token paren = expr.paren;
+
+    Stmt.Function target = feedback == null ? null : feedback.target(expr);
+    if (target == null || arguments.length < target.parameters.size()) {
+      ExprNode callee = compile(expr.callee);
+      return (interpreter, environment, frame) -> {
+        Object function = callee.evaluate(interpreter, environment, frame);
+        List<Object> values =
+            evaluate(arguments, interpreter, environment, frame);
+        return call(function, values, paren, interpreter);
+      };
+    }
+
+    LoxClass receiver = feedback.receiver(expr);
+    if (receiver != null && expr.callee instanceof Expr.Get) {
+      Expr.Get get = (Expr.Get)expr.callee;
+      LoxFunction method = receiver.method(get.name.lexeme);
+      if (method != null && method.declaration == target &&
+          !method.isInitializer && canInline(target)) {
+        return inlineMethod(get, receiver, method, arguments, paren);
+      }
+    }
+
+    ExprNode callee = compile(expr.callee);
+
+    // If the call site only ever saw one function, test for it first and
+    // skip the arity check, there are enough arguments.
+    if (!canInline(target)) {
+      return (interpreter, environment, frame) -> {
+        Object function = callee.evaluate(interpreter, environment, frame);
+        List<Object> values =
+            evaluate(arguments, interpreter, environment, frame);
+        if (function instanceof LoxFunction &&
+            ((LoxFunction)function).declaration == target) {
+          return ((LoxFunction)function).call(interpreter, values);
+        }
+        return call(function, values, paren, interpreter);
+      };
+    }
+
+    Body body = inline(target, false);
+    return (interpreter, environment, frame) -> {
+      Object function = callee.evaluate(interpreter, environment, frame);
+      if (function instanceof LoxFunction) {
+        LoxFunction loxFunction = (LoxFunction)function;
+        if (loxFunction.declaration == target && !loxFunction.isInitializer) {
+          loxFunction.inlined(interpreter);
+          return body.inline(interpreter, loxFunction.closure, null,
+              arguments, environment, frame);
+        }
+      }
+
+      List<Object> values =
+          evaluate(arguments, interpreter, environment, frame);
+      return call(function, values, paren, interpreter);
+    };
+  }
+
+  // A call to a generator does not run its body.
+  private boolean canInline(Stmt.Function function) {
+    return inlining.size() < MAX_INLINING_DEPTH &&
+        !inlining.contains(function) &&
+        LoxGenerator.yields(function).isEmpty();
+  }
+
+  private Body inline(Stmt.Function function, boolean bindsThis) {
+    inlining.add(function);
+    try {
+      return compileBody(function, bindsThis);
+    } finally {
+      inlining.remove(inlining.size() - 1);
+    }
+  }
+
+  // Guards on the class of the receiver, which decides the method called,
+  // and binds "this" without creating the bound method.
+  private ExprNode inlineMethod(Expr.Get get, LoxClass receiver,
+                                LoxFunction method, ExprNode[] arguments,
+                                Token paren) {
+    ExprNode object = compile(get.object);
+    Token name = get.name;
+    Environment closure = method.closure;
+    Body body = inline(method.declaration, true);
+    return (interpreter, environment, frame) -> {
+      Object value = object.evaluate(interpreter, environment, frame);
+      if (!(value instanceof LoxInstance)) {
+        throw new RuntimeError(name, "Only instances have properties.");
+      }
+
+      LoxInstance instance = (LoxInstance)value;
+      if (instance.klass() == receiver &&
+          !instance.fields().containsKey(name.lexeme)) {
+        method.inlined(interpreter);
+        return body.inline(interpreter, closure, instance, arguments,
+            environment, frame);
+      }
+
+      Object function = instance.getProperty(name);
+      List<Object> values =
+          evaluate(arguments, interpreter, environment, frame);
+      return call(function, values, paren, interpreter);
+    };
+  }
+
+  private static List<Object> evaluate(ExprNode[] arguments,
+                                       Interpreter interpreter,
+                                       Environment environment,
+                                       Object[] frame) {
+    List<Object> values = new ArrayList<>(arguments.length);
+    for (ExprNode argument : arguments) {
+      values.add(argument.evaluate(interpreter, environment, frame));
+    }
+    return values;
+  }
+
+  private static Object call(Object callee, List<Object> arguments,
+                             Token paren, Interpreter interpreter) {
+    if (!(callee instanceof Callable)) {
+      throw new RuntimeError(paren, "Can only call functions and classes.");
+    }
+
+    Callable function = (Callable)callee;
+    if (arguments.size() < function.requiredArguments()) {
+      throw new RuntimeError(paren, "Not enough arguments.");
+    }
+
+    try {
+      return function.call(interpreter, arguments);
+    } catch (RuntimeError error) {
+      // A native function does not know where it is called from.
+      if (error.token != null) throw error;
+      throw new RuntimeError(paren, error.getMessage());
+    }
+  }
+
+  @Override
+  public ExprNode visitGetExpr(Expr.Get expr) {
+    ExprNode object = compile(expr.object);
+    Token name = expr.name;
+    return (interpreter, environment, frame) -> {
+      Object value = object.evaluate(interpreter, environment, frame);
+      if (value instanceof LoxInstance) {
+        return ((LoxInstance)value).getProperty(name);
+      }
+
+      throw new RuntimeError(name, "Only instances have properties.");
+    };
+  }
+
+  @Override
+  public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+    return compile(expr.expression);
+  }
+
+  @Override
+  public ExprNode visitLiteralExpr(Expr.Literal expr) {
+    Object value = expr.value;
+    return (interpreter, environment, frame) -> value;
+  }
+
+  @Override
+  public ExprNode visitLogicalExpr(Expr.Logical expr) {
+    ExprNode left = compile(expr.left);
+    ExprNode right = compile(expr.right);
+    if (expr.operator.type == TokenType.OR) {
+      return (interpreter, environment, frame) -> {
+        Object value = left.evaluate(interpreter, environment, frame);
+        if (interpreter.isTruthy(value)) return value;
+        return right.evaluate(interpreter, environment, frame);
+      };
+    }
+
+    return (interpreter, environment, frame) -> {
+      Object value = left.evaluate(interpreter, environment, frame);
+      if (!interpreter.isTruthy(value)) return value;
+      return right.evaluate(interpreter, environment, frame);
+    };
+  }
+
+  @Override
+  public ExprNode visitSetExpr(Expr.Set expr) {
+    ExprNode value = compile(expr.value);
+    ExprNode object = compile(expr.object);
+    Token name = expr.name;
+    return (interpreter, environment, frame) -> {
+      Object result = value.evaluate(interpreter, environment, frame);
+      Object instance = object.evaluate(interpreter, environment, frame);
+
+      if (instance instanceof LoxInstance) {
+        ((LoxInstance)instance).fields().put(name.lexeme, result);
+        return result;
+      }
+
+      throw new RuntimeError(name, "Only instances have fields.");
+    };
+  }
+
+  @Override
+  public ExprNode visitSuperExpr(Expr.Super expr) {
+    // "super" is bound outside of the method, never in a frame, but "this"
+    // is in the frame of an inlined method.
+    int distance = locals.get(expr);
+    int hops = distance - depth;
+
+    // "this" is always one level nearer than "super"'s environment.
+    ExprNode self = local("this", distance - 1);
+    Token method = expr.method;
+    return (interpreter, environment, frame) -> {
+      LoxClass superclass = (LoxClass)environment.getAt(hops, "super");
+      LoxInstance receiver =
+          (LoxInstance)self.evaluate(interpreter, environment, frame);
+
+      LoxFunction function = superclass.findMethod(receiver, method.lexeme);
+      if (function == null) {
+        throw new RuntimeError(method,
+            "Undefined property '" + method.lexeme + "'.");
+      }
+
+      return function;
+    };
+  }
+
+  @Override
+  public ExprNode visitThisExpr(Expr.This expr) {
+    return variable(expr.keyword, expr);
+  }
+
+  @Override
+  public ExprNode visitUnaryExpr(Expr.Unary expr) {
+    ExprNode right = compile(expr.right);
+    Token operator = expr.operator;
+    if (operator.type == TokenType.BANG) {
+      return (interpreter, environment, frame) -> !interpreter.isTruthy(
+          right.evaluate(interpreter, environment, frame));
+    }
+
+    return (interpreter, environment, frame) -> {
+      Object value = right.evaluate(interpreter, environment, frame);
+      if (value instanceof Double) return -(double)value;
+      throw new RuntimeError(operator, "Operand must be a number.");
+    };
+  }
+
+  @Override
+  public ExprNode visitVariableExpr(Expr.Variable expr) {
+    return variable(expr.name, expr);
+  }
+
+  private ExprNode variable(Token name, Expr expr) {
+    Integer distance = locals.get(expr);
+    if (distance == null) {
+      return (interpreter, environment, frame) ->
+          interpreter.globals.get(name);
+    }
+
+    return local(name.lexeme, distance);
+  }
+
+  private ExprNode local(String name, int distance) {
+    if (distance < depth) {
+      int slot = slot(distance, name);
+      return (interpreter, environment, frame) -> frame[slot];
+    }
+
+    int hops = distance - depth;
+    return (interpreter, environment, frame) ->
+        environment.getAt(hops, name);
+  }
+}
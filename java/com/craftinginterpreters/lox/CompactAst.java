@@ -0,0 +1,580 @@
+package com.craftinginterpreters.lox;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A resolved syntax tree packed in arrays of primitives, for a process that
+// keeps many scripts loaded, see Program: a node is an index, with a kind
+// and up to three int fields, instead of an object with its Tokens, and
+// their lexemes and lines.
+//
+// The fields of a node hold the index of a child node, of a list, of a name,
+// of a number, a TokenType or a scope distance, depending on its kind, -1
+// standing for a missing node or a global. A list is its size followed by
+// its elements in [lists]. Nodes are numbered in preorder, so the lines of
+// consecutive nodes are mostly the same and are kept as a table of runs.
+//
+// statements() turns it back into a tree the Interpreter runs. Only the top
+// level is built right away, the body of a function is built the first time
+// it is used, like a LazyBody, so the parts of a script that never run stay
+// packed.
+final class CompactAst {
+  // Node kinds.
+  private static final byte BLOCK = 0;
+  private static final byte CLASS = 1;        // name, superclass, methods
+  private static final byte EXPRESSION = 2;   // expression
+  private static final byte FUNCTION = 3;     // name, parameters, body
+  private static final byte IF = 4;           // condition, then, else
+  private static final byte PRINT = 5;        // expression
+  private static final byte RETURN = 6;       // value
+  private static final byte VAR = 7;          // name, initializer
+  private static final byte WHILE = 8;        // condition, body
+  private static final byte ASSIGN = 9;       // name, value, distance
+  private static final byte BINARY = 10;      // left, operator, right
+  private static final byte CALL = 11;        // callee, arguments
+  private static final byte GET = 12;         // object, name
+  private static final byte GROUPING = 13;    // expression
+  private static final byte NIL = 14;
+  private static final byte FALSE = 15;
+  private static final byte TRUE = 16;
+  private static final byte NUMBER = 17;      // number
+  private static final byte STRING = 18;      // name
+  private static final byte LOGICAL = 19;     // left, operator, right
+  private static final byte SET = 20;         // object, name, value
+  private static final byte SUPER = 21;       // method, distance
+  private static final byte THIS = 22;        // distance
+  private static final byte UNARY = 23;       // operator, right
+  private static final byte VARIABLE = 24;    // name, distance
+  private static final byte YIELD = 25;       // value
+
+  private static final TokenType[] TYPES = TokenType.values();
+
+  private final byte[] kinds;
+  private final int[] first;
+  private final int[] second;
+  private final int[] third;
+  private final int[] lists;
+
+  // The identifiers and strings, each one once.
+  private final String[] names;
+  private final double[] numbers;
+
+  // Node lineNodes[i] and the ones up to the next run are on lineNumbers[i].
+  private final int[] lineNodes;
+  private final int[] lineNumbers;
+
+  // The top-level statements.
+  private final int statements;
+
+  private CompactAst(Encoder encoder) {
+    kinds = Arrays.copyOf(encoder.kinds, encoder.count);
+    first = Arrays.copyOf(encoder.first, encoder.count);
+    second = Arrays.copyOf(encoder.second, encoder.count);
+    third = Arrays.copyOf(encoder.third, encoder.count);
+    lists = Arrays.copyOf(encoder.lists, encoder.listSize);
+    names = encoder.nameTable.toArray(new String[0]);
+    numbers = Arrays.copyOf(encoder.numbers, encoder.numberCount);
+    lineNodes = Arrays.copyOf(encoder.lineNodes, encoder.runs);
+    lineNumbers = Arrays.copyOf(encoder.lineNumbers, encoder.runs);
+    statements = encoder.statements;
+  }
+
+  static CompactAst encode(List<Stmt> statements, Map<Expr, Integer> locals) {
+    Encoder encoder = new Encoder(locals);
+    encoder.statements = encoder.list(statements);
+    return new CompactAst(encoder);
+  }
+
+  // Builds the tree, and adds its resolved variables to [locals], as the
+  // bodies of the functions are built. As it happens while the script runs,
+  // [locals] should be a concurrent map when a compiler thread reads it.
+  List<Stmt> statements(Map<Expr, Integer> locals) {
+    return new Decoder(locals).statements(statements);
+  }
+
+  private static class Encoder implements Expr.Visitor<Integer>,
+                                          Stmt.Visitor<Integer> {
+    private final Map<Expr, Integer> locals;
+
+    private byte[] kinds = new byte[256];
+    private int[] first = new int[256];
+    private int[] second = new int[256];
+    private int[] third = new int[256];
+    private int count = 0;
+
+    private int[] lists = new int[256];
+    private int listSize = 0;
+
+    private final Map<String, Integer> names = new HashMap<>();
+    private final List<String> nameTable = new ArrayList<>();
+    private double[] numbers = new double[16];
+    private int numberCount = 0;
+
+    private int[] lineNodes = new int[64];
+    private int[] lineNumbers = new int[64];
+    private int runs = 0;
+
+    // The line of the last token seen, given to the nodes without one.
+    private int line = 1;
+
+    private int statements;
+
+    Encoder(Map<Expr, Integer> locals) {
+      this.locals = locals;
+    }
+
+    // Returns the index of a new node, whose fields are set by the caller
+    // once its children are added.
+    private int node(byte kind, Token token) {
+      if (count == kinds.length) {
+        int capacity = count * 2;
+        kinds = Arrays.copyOf(kinds, capacity);
+        first = Arrays.copyOf(first, capacity);
+        second = Arrays.copyOf(second, capacity);
+        third = Arrays.copyOf(third, capacity);
+      }
+
+      if (token != null) line = token.line;
+      if (runs == 0 || lineNumbers[runs - 1] != line) {
+        if (runs == lineNodes.length) {
+          lineNodes = Arrays.copyOf(lineNodes, runs * 2);
+          lineNumbers = Arrays.copyOf(lineNumbers, runs * 2);
+        }
+        lineNodes[runs] = count;
+        lineNumbers[runs] = line;
+        runs++;
+      }
+
+      kinds[count] = kind;
+      first[count] = -1;
+      second[count] = -1;
+      third[count] = -1;
+      return count++;
+    }
+
+    private int node(byte kind, Token token, int a, int b, int c) {
+      int node = node(kind, token);
+      first[node] = a;
+      second[node] = b;
+      third[node] = c;
+      return node;
+    }
+
+    // Set once the children of the node are added, which may grow the
+    // arrays: "first[node] = expr(...)" would write to the old one.
+    private void setFirst(int node, int value) {
+      first[node] = value;
+    }
+
+    private void setSecond(int node, int value) {
+      second[node] = value;
+    }
+
+    private void setThird(int node, int value) {
+      third[node] = value;
+    }
+
+    private int name(String name) {
+      Integer index = names.get(name);
+      if (index == null) {
+        index = nameTable.size();
+        names.put(name, index);
+        nameTable.add(name);
+      }
+      return index;
+    }
+
+    private int number(double number) {
+      if (numberCount == numbers.length) {
+        numbers = Arrays.copyOf(numbers, numberCount * 2);
+      }
+      numbers[numberCount] = number;
+      return numberCount++;
+    }
+
+    // -1 for a global.
+    private int distance(Expr expr) {
+      Integer distance = locals.get(expr);
+      return distance == null ? -1 : distance;
+    }
+
+    private int stmt(Stmt stmt) {
+      return stmt == null ? -1 : stmt.accept(this);
+    }
+
+    private int expr(Expr expr) {
+      return expr == null ? -1 : expr.accept(this);
+    }
+
+    // The elements are added first, as they may add lists of their own.
+    private int list(List<?> nodes) {
+      int[] elements = new int[nodes.size()];
+      for (int i = 0; i < elements.length; i++) {
+        Object node = nodes.get(i);
+        if (node instanceof Token) {
+          elements[i] = name(((Token)node).lexeme);
+        } else if (node instanceof Stmt) {
+          elements[i] = stmt((Stmt)node);
+        } else {
+          elements[i] = expr((Expr)node);
+        }
+      }
+
+      if (listSize + elements.length + 1 > lists.length) {
+        lists = Arrays.copyOf(lists,
+            Math.max(lists.length * 2, listSize + elements.length + 1));
+      }
+      int list = listSize;
+      lists[listSize++] = elements.length;
+      System.arraycopy(elements, 0, lists, listSize, elements.length);
+      listSize += elements.length;
+      return list;
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+      int node = node(BLOCK, null);
+      setFirst(node, list(stmt.statements));
+      return node;
+    }
+
+    @Override
+    public Integer visitClassStmt(Stmt.Class stmt) {
+      int node = node(CLASS, stmt.name);
+      setFirst(node, name(stmt.name.lexeme));
+      setSecond(node, expr(stmt.superclass));
+      setThird(node, list(stmt.methods));
+      return node;
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+      int node = node(EXPRESSION, null);
+      setFirst(node, expr(stmt.expression));
+      return node;
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt) {
+      int node = node(FUNCTION, stmt.name);
+      setFirst(node, name(stmt.name.lexeme));
+      setSecond(node, list(stmt.parameters));
+      setThird(node, list(stmt.body));
+      return node;
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+      int node = node(IF, null);
+      setFirst(node, expr(stmt.condition));
+      setSecond(node, stmt(stmt.thenBranch));
+      setThird(node, stmt(stmt.elseBranch));
+      return node;
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+      int node = node(PRINT, null);
+      setFirst(node, expr(stmt.expression));
+      return node;
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+      int node = node(RETURN, stmt.keyword);
+      setFirst(node, expr(stmt.value));
+      return node;
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+      int node = node(VAR, stmt.name);
+      setFirst(node, name(stmt.name.lexeme));
+      setSecond(node, expr(stmt.initializer));
+      return node;
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+      int node = node(WHILE, stmt.keyword);
+      setFirst(node, expr(stmt.condition));
+      setSecond(node, stmt(stmt.body));
+      return node;
+    }
+
+    @Override
+    public Integer visitYieldStmt(Stmt.Yield stmt) {
+      int node = node(YIELD, stmt.keyword);
+      setFirst(node, expr(stmt.value));
+      return node;
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+      int node = node(ASSIGN, expr.name);
+      setFirst(node, name(expr.name.lexeme));
+      setSecond(node, expr(expr.value));
+      setThird(node, distance(expr));
+      return node;
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+      return operator(BINARY, expr.left, expr.operator, expr.right);
+    }
+
+    private int operator(byte kind, Expr left, Token operator, Expr right) {
+      int node = node(kind, operator);
+      setFirst(node, expr(left));
+      setSecond(node, operator.type.ordinal());
+      setThird(node, expr(right));
+      return node;
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+      int node = node(CALL, expr.paren);
+      setFirst(node, expr(expr.callee));
+      setSecond(node, list(expr.arguments));
+      return node;
+    }
+
+    @Override
+    public Integer visitGetExpr(Expr.Get expr) {
+      int node = node(GET, expr.name);
+      setFirst(node, expr(expr.object));
+      setSecond(node, name(expr.name.lexeme));
+      return node;
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+      int node = node(GROUPING, null);
+      setFirst(node, expr(expr.expression));
+      return node;
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+      Object value = expr.value;
+      if (value == null) return node(NIL, null);
+      if (value instanceof Boolean) {
+        return node((boolean)value ? TRUE : FALSE, null);
+      }
+      if (value instanceof Double) {
+        return node(NUMBER, null, number((double)value), -1, -1);
+      }
+      return node(STRING, null, name((String)value), -1, -1);
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+      return operator(LOGICAL, expr.left, expr.operator, expr.right);
+    }
+
+    @Override
+    public Integer visitSetExpr(Expr.Set expr) {
+      int node = node(SET, expr.name);
+      setFirst(node, expr(expr.object));
+      setSecond(node, name(expr.name.lexeme));
+      setThird(node, expr(expr.value));
+      return node;
+    }
+
+    @Override
+    public Integer visitSuperExpr(Expr.Super expr) {
+      return node(SUPER, expr.keyword, name(expr.method.lexeme),
+          distance(expr), -1);
+    }
+
+    @Override
+    public Integer visitThisExpr(Expr.This expr) {
+      return node(THIS, expr.keyword, distance(expr), -1, -1);
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+      int node = node(UNARY, expr.operator);
+      setFirst(node, expr.operator.type.ordinal());
+      setSecond(node, expr(expr.right));
+      return node;
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+      return node(VARIABLE, expr.name, name(expr.name.lexeme),
+          distance(expr), -1);
+    }
+  }
+
+  private class Decoder {
+    private final Map<Expr, Integer> locals;
+
+    Decoder(Map<Expr, Integer> locals) {
+      this.locals = locals;
+    }
+
+    private int line(int node) {
+      int run = Arrays.binarySearch(lineNodes, node);
+      if (run < 0) run = -run - 2;
+      return lineNumbers[run];
+    }
+
+    // A keyword or an operator.
+    private Token token(TokenType type, int node) {
+      return new Token(type, TokenArray.lexeme(type), null, line(node));
+    }
+
+    private Token identifier(int name, int node) {
+      return new Token(TokenType.IDENTIFIER, names[name], null, line(node));
+    }
+
+    private <E extends Expr> E resolved(E expr, int distance) {
+      if (distance != -1) locals.put(expr, distance);
+      return expr;
+    }
+
+    List<Stmt> statements(int list) {
+      int count = lists[list];
+      List<Stmt> statements = new ArrayList<>(count);
+      for (int i = 1; i <= count; i++) {
+        statements.add(stmt(lists[list + i]));
+      }
+      return statements;
+    }
+
+    private List<Expr> exprs(int list) {
+      int count = lists[list];
+      List<Expr> exprs = new ArrayList<>(count);
+      for (int i = 1; i <= count; i++) {
+        exprs.add(expr(lists[list + i]));
+      }
+      return exprs;
+    }
+
+    private Stmt stmt(int node) {
+      if (node == -1) return null;
+
+      int a = first[node];
+      int b = second[node];
+      int c = third[node];
+      switch (kinds[node]) {
+        case BLOCK: return new Stmt.Block(statements(a));
+        case CLASS: {
+          int count = lists[c];
+          List<Stmt.Function> methods = new ArrayList<>(count);
+          for (int i = 1; i <= count; i++) {
+            methods.add(function(lists[c + i]));
+          }
+          return new Stmt.Class(identifier(a, node), expr(b), methods);
+        }
+        case EXPRESSION: return new Stmt.Expression(expr(a));
+        case FUNCTION: return function(node);
+        case IF: return new Stmt.If(expr(a), stmt(b), stmt(c));
+        case PRINT: return new Stmt.Print(expr(a));
+        case RETURN:
+          return new Stmt.Return(token(TokenType.RETURN, node), expr(a));
+        case VAR: return new Stmt.Var(identifier(a, node), expr(b));
+        // A desugared for loop comes back with a 'while': only the line of
+        // the keyword is used, see Budget.
+        case WHILE:
+          return new Stmt.While(token(TokenType.WHILE, node), expr(a),
+              stmt(b));
+        case YIELD:
+          return new Stmt.Yield(token(TokenType.YIELD, node), expr(a));
+        default:
+          throw new IllegalStateException("Not a statement: " + node);
+      }
+    }
+
+    private Stmt.Function function(int node) {
+      int parameters = second[node];
+      int count = lists[parameters];
+      List<Token> tokens = new ArrayList<>(count);
+      for (int i = 1; i <= count; i++) {
+        tokens.add(identifier(lists[parameters + i], node));
+      }
+      return new Stmt.Function(identifier(first[node], node), tokens,
+          new Body(this, third[node]));
+    }
+
+    private Expr expr(int node) {
+      if (node == -1) return null;
+
+      int a = first[node];
+      int b = second[node];
+      int c = third[node];
+      switch (kinds[node]) {
+        case ASSIGN:
+          return resolved(new Expr.Assign(identifier(a, node), expr(b)), c);
+        case BINARY:
+          return new Expr.Binary(expr(a), token(TYPES[b], node), expr(c));
+        case CALL:
+          return new Expr.Call(expr(a),
+              token(TokenType.RIGHT_PAREN, node), exprs(b));
+        case GET: return new Expr.Get(expr(a), identifier(b, node));
+        case GROUPING: return new Expr.Grouping(expr(a));
+        case NIL: return new Expr.Literal(null);
+        case FALSE: return new Expr.Literal(false);
+        case TRUE: return new Expr.Literal(true);
+        case NUMBER: return new Expr.Literal(numbers[a]);
+        case STRING: return new Expr.Literal(names[a]);
+        case LOGICAL:
+          return new Expr.Logical(expr(a), token(TYPES[b], node), expr(c));
+        case SET:
+          return new Expr.Set(expr(a), identifier(b, node), expr(c));
+        case SUPER:
+          return resolved(new Expr.Super(
+              token(TokenType.SUPER, node), identifier(a, node)), b);
+        case THIS:
+          return resolved(new Expr.This(token(TokenType.THIS, node)), a);
+        case UNARY: return new Expr.Unary(token(TYPES[a], node), expr(b));
+        case VARIABLE:
+          return resolved(new Expr.Variable(identifier(a, node)), b);
+        default:
+          throw new IllegalStateException("Not an expression: " + node);
+      }
+    }
+  }
+
+  // The body of a function, built from the packed tree when first used.
+  private static final class Body extends AbstractList<Stmt> {
+    private Decoder decoder;
+    private final int list;
+    private volatile List<Stmt> statements;
+
+    Body(Decoder decoder, int list) {
+      this.decoder = decoder;
+      this.list = list;
+    }
+
+    private List<Stmt> statements() {
+      List<Stmt> statements = this.statements;
+      if (statements == null) statements = build();
+      return statements;
+    }
+
+    // Synchronized as the compiler thread can walk a body too.
+    private synchronized List<Stmt> build() {
+      if (statements == null) {
+        statements = decoder.statements(list);
+        decoder = null;
+      }
+      return statements;
+    }
+
+    @Override
+    public Stmt get(int index) {
+      return statements().get(index);
+    }
+
+    @Override
+    public int size() {
+      return statements().size();
+    }
+  }
+}
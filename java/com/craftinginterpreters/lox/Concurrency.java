@@ -0,0 +1,236 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.SynchronousQueue;
+
+// The native functions that run Lox code concurrently:
+//
+//   spawn(fn)            Calls fn() on a new thread and returns its task.
+//   join(task)           Waits for the task to end and returns what fn
+//                        returned.
+//   channel(capacity)    A queue of at most capacity values, 0 for one where
+//                        a send waits for a receive.
+//   send(channel, value) Waits for room in the channel and adds the value.
+//   receive(channel)     Waits for a value in the channel and removes it.
+//
+// A task runs in a fork of the Interpreter that spawned it, so it has its
+// own environments and only shares the globals and the closures of fn. It
+// runs on a virtual thread when the JVM has them, a daemon thread
+// otherwise: either way, the tasks still running when the script ends are
+// abandoned. A runtime error in a task is reported where the errors of the
+// script go, and join() then fails too.
+final class Concurrency {
+  private Concurrency() {}
+
+  // If the Lox code of a script runs on several threads. Each set of globals
+  // has its own, shared by the Environments that it encloses and by the
+  // instances created by its Interpreters, so the tasks of one Context do
+  // not slow down the scripts of the others.
+  //
+  // Set before the first task of the script starts, then never reset. From
+  // then on, the variables and the fields of the script are moved to
+  // SharedMaps as they are used, see Environment and LoxInstance, so a
+  // script that stays on one thread pays a read of the flag and nothing
+  // more.
+  //
+  // It is not volatile. The objects of the script only reach another thread
+  // through the start of a task or the submission of a slice to the common
+  // ForkJoinPool, see Parallel, whose workers may be older than the flag.
+  // Both happen after the flag is set, and happen-before what the other
+  // thread then does, so it sees the flag set.
+  //
+  // The flag is deliberately coarse: once set, every map of the script is
+  // moved, not only those of the objects another thread can reach. Telling
+  // them apart would need to track which objects are published, and to
+  // move a map while its thread may still write to it.
+  static final class Sharing {
+    boolean enabled = false;
+  }
+
+  // Thread.startVirtualThread(), or null before Java 21.
+  private static final MethodHandle START_VIRTUAL_THREAD =
+      startVirtualThread();
+
+  static void defineNatives(Environment globals) {
+    globals.define("spawn", new Native(1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Object function = arguments.get(0);
+        if (!(function instanceof Callable)) {
+          throw new RuntimeError(null, "Can only spawn a function.");
+        }
+        if (((Callable)function).requiredArguments() > 0) {
+          throw new RuntimeError(null, "Not enough arguments.");
+        }
+        return spawn(interpreter, (Callable)function);
+      }
+    });
+
+    globals.define("join", new Native(1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Task task = task(arguments.get(0));
+        return interpreter.waitFor(task::join);
+      }
+    });
+
+    globals.define("channel", new Native(1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Object capacity = arguments.get(0);
+        if (!(capacity instanceof Double) || (double)capacity < 0 ||
+            (double)capacity != Math.floor((double)capacity)) {
+          throw new RuntimeError(null,
+              "Capacity must be a non-negative integer.");
+        }
+        return new Channel((int)(double)capacity);
+      }
+    });
+
+    globals.define("send", new Native(2) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Channel channel = channel(arguments.get(0));
+        return interpreter.waitFor(() -> {
+          channel.send(arguments.get(1));
+          return null;
+        });
+      }
+    });
+
+    globals.define("receive", new Native(1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Channel channel = channel(arguments.get(0));
+        return interpreter.waitFor(channel::receive);
+      }
+    });
+  }
+
+  static final class Task {
+    private final CompletableFuture<Object> result =
+        new CompletableFuture<>();
+
+    Object join() {
+      try {
+        return result.get();
+      } catch (ExecutionException e) {
+        throw new RuntimeError(null, "Joined task failed.");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeError(null, "Interrupted.");
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "<task>";
+    }
+  }
+
+  static final class Channel {
+    // Stands for nil, which a queue cannot hold.
+    private static final Object NIL = new Object();
+
+    private final BlockingQueue<Object> queue;
+
+    Channel(int capacity) {
+      queue = capacity == 0
+          ? new SynchronousQueue<>()
+          : new ArrayBlockingQueue<>(capacity);
+    }
+
+    void send(Object value) {
+      try {
+        queue.put(value == null ? NIL : value);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeError(null, "Interrupted.");
+      }
+    }
+
+    Object receive() {
+      try {
+        Object value = queue.take();
+        return value == NIL ? null : value;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeError(null, "Interrupted.");
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "<channel>";
+    }
+  }
+
+  private static Task spawn(Interpreter interpreter, Callable function) {
+    interpreter.globals.sharing.enabled = true;
+    Interpreter fork = interpreter.fork();
+    List<String> errorLog = Lox.errorLog.get();
+    Task task = new Task();
+    start(() -> {
+      if (errorLog != null) Lox.errorLog.set(errorLog);
+      try {
+        Object result = function.call(fork, List.of());
+        fork.runEvents();
+        task.result.complete(result);
+      } catch (RuntimeError error) {
+        Lox.runtimeError(error);
+        task.result.completeExceptionally(error);
+      } catch (Throwable t) {
+        task.result.completeExceptionally(t);
+        throw t;
+      } finally {
+        fork.endFork();
+      }
+    });
+    return task;
+  }
+
+  // Returns the thread, which invokeExact() needs to be told it returns.
+  private static Thread start(Runnable runnable) {
+    if (START_VIRTUAL_THREAD != null) {
+      try {
+        return (Thread)START_VIRTUAL_THREAD.invokeExact(runnable);
+      } catch (UnsupportedOperationException e) {
+        // A preview feature of Java 19 and 20, not enabled.
+      } catch (Throwable t) {
+        throw new AssertionError(t);
+      }
+    }
+
+    Thread thread = new Thread(runnable, "lox-task");
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  private static MethodHandle startVirtualThread() {
+    try {
+      return MethodHandles.publicLookup().findStatic(Thread.class,
+          "startVirtualThread",
+          MethodType.methodType(Thread.class, Runnable.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      return null;
+    }
+  }
+
+  private static Task task(Object value) {
+    if (value instanceof Task) return (Task)value;
+    throw new RuntimeError(null, "Can only join a task.");
+  }
+
+  private static Channel channel(Object value) {
+    if (value instanceof Channel) return (Channel)value;
+    throw new RuntimeError(null, "Operand must be a channel.");
+  }
+}
@@ -0,0 +1,161 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Runs Lox embedded in a Java program:
+//
+//   Context context = new Context(System.out, System.err);
+//   Program program = context.compile("print 1 + 2;");
+//   if (program != null) context.run(program);
+//
+// A Context has its own globals, its own output and error streams and its
+// own error state, so several Contexts can run scripts on as many threads,
+// sharing the same Programs. A Context itself runs one script at a time.
+// What a script prints is buffered, by default until run returns, see
+// Printer.
+//
+// A Context can stop a script after a number of steps, and take turns with
+// the scripts of other Contexts, see Scheduler.
+//
+// The errors are reported by the Scanner, the Parser, the Resolver and the
+// Interpreter to Lox, which hands them to the Context of the current thread,
+// see Lox.errorLog. The Context writes each one to its error stream at once,
+// after flushing what the script printed before.
+public final class Context {
+  private final Interpreter interpreter = new Interpreter();
+  private final PrintStream err;
+
+  // The trees of the programs run so far, and their locals: a function
+  // declared by one can be called by the next ones. The map is concurrent
+  // as the compiler thread reads it, see Tiers.
+  private final Map<Program, List<Stmt>> programs = new HashMap<>();
+  private final Map<Expr, Integer> locals = new ConcurrentHashMap<>();
+
+  private boolean hadError = false;
+  private boolean hadRuntimeError = false;
+
+  private Scheduler scheduler = null;
+  private long stepLimit = Long.MAX_VALUE;
+
+  public Context(PrintStream out, PrintStream err) {
+    this(out, err, Printer.BUFFER_SIZE);
+  }
+
+  // Writes what the scripts print to [out] once [bufferSize] bytes of it are
+  // buffered, and when run returns. With 0, each line is written and
+  // flushed at once, for a host that streams it, like Daemon.
+  public Context(PrintStream out, PrintStream err, int bufferSize) {
+    if (bufferSize < 0) {
+      throw new IllegalArgumentException("bufferSize must not be negative");
+    }
+    this.err = err;
+    interpreter.out = new Printer(out, Charset.defaultCharset(), bufferSize,
+        false);
+  }
+
+  // Returns null, after reporting the errors, if [source] has a syntax or a
+  // resolution error.
+  public Program compile(String source) {
+    List<String> errors = new ErrorLog();
+    List<String> enclosing = Lox.errorLog.get();
+    Lox.errorLog.set(errors);
+    try {
+      List<Token> tokens = new ArrayScanner(source).scanTokens();
+      List<Stmt> statements = new Parser(tokens).parse();
+      if (!errors.isEmpty()) return null;
+
+      Map<Expr, Integer> locals = new Resolver().resolve(statements);
+      if (!errors.isEmpty()) return null;
+
+      return new Program(statements, locals);
+    } finally {
+      restore(enclosing);
+      if (!errors.isEmpty()) hadError = true;
+    }
+  }
+
+  // Runs [program] in the globals of this Context, those defined by the
+  // programs it ran before included.
+  public void run(Program program) {
+    List<String> errors = new ErrorLog();
+    List<String> enclosing = Lox.errorLog.get();
+    Lox.errorLog.set(errors);
+    if (scheduler != null || stepLimit != Long.MAX_VALUE) {
+      interpreter.budget = new Budget(scheduler,
+          scheduler != null ? scheduler.quantum : Budget.QUANTUM, stepLimit);
+    }
+    if (scheduler != null) scheduler.begin();
+    try {
+      List<Stmt> statements =
+          programs.computeIfAbsent(program, key -> key.statements(locals));
+      interpreter.interpret(statements, locals);
+    } finally {
+      if (scheduler != null) scheduler.end();
+      restore(enclosing);
+      interpreter.out.flush();
+      if (!errors.isEmpty()) hadRuntimeError = true;
+    }
+  }
+
+  // The scripts run from now on take turns with the others of [scheduler],
+  // null for none.
+  public void setScheduler(Scheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  // Each script run from now on is stopped with a runtime error after
+  // [steps] calls and loop iterations.
+  public void setStepLimit(long steps) {
+    if (steps < 1) throw new IllegalArgumentException("steps must be positive");
+    stepLimit = steps;
+  }
+
+  public boolean hadError() {
+    return hadError;
+  }
+
+  public boolean hadRuntimeError() {
+    return hadRuntimeError;
+  }
+
+  // The exit code of jlox after the same errors.
+  public int exitCode() {
+    if (hadError) return 65;
+    if (hadRuntimeError) return 70;
+    return 0;
+  }
+
+  // Forgets the errors, not the globals.
+  public void reset() {
+    hadError = false;
+    hadRuntimeError = false;
+  }
+
+  // Lox adds to the log with its lock held, so the errors of the tasks of a
+  // script are written one at a time.
+  private final class ErrorLog extends ArrayList<String> {
+    @Override
+    public boolean add(String error) {
+      interpreter.out.flush();
+      err.println(error);
+      err.flush();
+      return super.add(error);
+    }
+  }
+
+  // A Context can be used while another one reports, from a native function
+  // of the host for example.
+  private static void restore(List<String> enclosing) {
+    if (enclosing == null) {
+      Lox.errorLog.remove();
+    } else {
+      Lox.errorLog.set(enclosing);
+    }
+  }
+}
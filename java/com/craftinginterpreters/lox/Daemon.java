@@ -0,0 +1,255 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// A long-lived jlox that runs scripts sent over a Unix domain socket, so a
+// run pays neither the start of the JVM nor the warm-up of the interpreter.
+//
+//   java -cp build/java com.craftinginterpreters.lox.Daemon serve <socket>
+//   java -cp build/java com.craftinginterpreters.lox.Daemon run <socket> \
+//       <script>|-
+//
+// The client sends a script path, or its source read from stdin with "-".
+// Each script runs on its own thread in its own Context, so with its own
+// globals, while its output and its errors are streamed back to the client,
+// which exits with the exit code jlox would have.
+//
+// The client sends a kind, PATH or SOURCE, then the length of the path or
+// the source in UTF-8 and its bytes. The server answers with frames, a kind,
+// OUT or ERR, then a length of at most BUFFER_SIZE and bytes, and ends with
+// EXIT and the exit code. The tasks of a script print and report errors on
+// their own threads, so the frames are written one at a time, see frame().
+//
+// With -Dlox.carriers=<count>, at most that many scripts run at once, taking
+// turns every -Dlox.quantum=<steps>, see Scheduler. With
+// -Dlox.stepLimit=<steps>, a script that runs longer is stopped.
+public final class Daemon {
+  private static final byte PATH = 0;
+  private static final byte SOURCE = 1;
+
+  private static final byte EXIT = 0;
+  private static final byte OUT = 1;
+  private static final byte ERR = 2;
+
+  // How much output is buffered before it is sent, and the most a frame
+  // holds.
+  private static final int BUFFER_SIZE = 8192;
+
+  // The longest script a client can send.
+  private static final int MAX_SOURCE = 1 << 26;
+
+  private static final Scheduler SCHEDULER = scheduler();
+  private static final long STEP_LIMIT = Long.getLong("lox.stepLimit", 0);
+
+  private Daemon() {}
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 2 && args[0].equals("serve")) {
+      serve(Paths.get(args[1]));
+    } else if (args.length == 3 && args[0].equals("run")) {
+      System.exit(run(Paths.get(args[1]), args[2]));
+    } else {
+      System.out.println("Usage: Daemon serve <socket>");
+      System.out.println("       Daemon run <socket> <script>|-");
+      System.exit(64);
+    }
+  }
+
+  static void serve(Path socket) throws IOException {
+    // Left by a previous daemon that did not stop cleanly.
+    Files.deleteIfExists(socket);
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try (ServerSocketChannel server =
+             ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      server.bind(UnixDomainSocketAddress.of(socket));
+      for (;;) {
+        SocketChannel client = server.accept();
+        executor.execute(() -> handle(client));
+      }
+    } finally {
+      executor.shutdown();
+      Files.deleteIfExists(socket);
+    }
+  }
+
+  private static void handle(SocketChannel client) {
+    try (SocketChannel channel = client) {
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(Channels.newInputStream(channel)));
+      DataOutputStream out =
+          new DataOutputStream(Channels.newOutputStream(channel));
+
+      byte kind = in.readByte();
+      byte[] bytes = new byte[length(in, MAX_SOURCE)];
+      in.readFully(bytes);
+
+      String source = new String(bytes, StandardCharsets.UTF_8);
+      if (kind == PATH) {
+        Path path = Paths.get(source);
+        try {
+          source = new String(Files.readAllBytes(path),
+              Charset.defaultCharset());
+        } catch (IOException e) {
+          byte[] message = ("Cannot read " + path + ".\n")
+              .getBytes(Charset.defaultCharset());
+          frame(out, ERR, message, 0, message.length);
+          frame(out, EXIT, null, 0, 66);
+          return;
+        }
+      }
+
+      frame(out, EXIT, null, 0, run(source, out));
+    } catch (IOException e) {
+      // The client went away, nobody is left to tell.
+    }
+  }
+
+  // Runs [source] like jlox runs a script, for a client, and returns its
+  // exit code.
+  private static int run(String source, DataOutputStream client) {
+    PrintStream out = new PrintStream(new FrameStream(client, OUT), false,
+        Charset.defaultCharset());
+    PrintStream err = new PrintStream(new FrameStream(client, ERR), false,
+        Charset.defaultCharset());
+    // The client gets each line as it is printed.
+    Context context = new Context(out, err, 0);
+    context.setScheduler(SCHEDULER);
+    if (STEP_LIMIT > 0) context.setStepLimit(STEP_LIMIT);
+    Program program = context.compile(source);
+    if (program != null) context.run(program);
+    return context.exitCode();
+  }
+
+  private static Scheduler scheduler() {
+    int carriers = Integer.getInteger("lox.carriers", 0);
+    if (carriers <= 0) return null;
+    return new Scheduler(carriers,
+        Integer.getInteger("lox.quantum", Budget.QUANTUM));
+  }
+
+  // Sends what is written as frames of [kind], when the buffer is full and
+  // when it is flushed.
+  private static final class FrameStream extends OutputStream {
+    private final DataOutputStream client;
+    private final byte kind;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int count = 0;
+
+    FrameStream(DataOutputStream client, byte kind) {
+      this.client = client;
+      this.kind = kind;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (count == buffer.length) flush();
+      buffer[count++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length)
+        throws IOException {
+      if (count + length > buffer.length) flush();
+      while (length > buffer.length) {
+        frame(client, kind, bytes, offset, buffer.length);
+        offset += buffer.length;
+        length -= buffer.length;
+      }
+      System.arraycopy(bytes, offset, buffer, count, length);
+      count += length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (count == 0) return;
+      frame(client, kind, buffer, 0, count);
+      count = 0;
+    }
+  }
+
+  // Writes a frame. EXIT frames carry the exit code instead of bytes.
+  // Locks [out], which the OUT and the ERR streams of a script share: each
+  // is only locked by its own PrintStream.
+  private static void frame(DataOutputStream out, byte kind, byte[] bytes,
+                            int offset, int length) throws IOException {
+    synchronized (out) {
+      out.writeByte(kind);
+      out.writeInt(length);
+      if (bytes != null) out.write(bytes, offset, length);
+      out.flush();
+    }
+  }
+
+  // Reads the length of a frame, failing if it cannot be one rather than
+  // allocating it.
+  private static int length(DataInputStream in, int max) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > max) {
+      throw new IOException("Bad frame length " + length + ".");
+    }
+    return length;
+  }
+
+  // The client side.
+  static int run(Path socket, String script) throws IOException {
+    byte kind;
+    byte[] bytes;
+    if (script.equals("-")) {
+      kind = SOURCE;
+      String source = new String(System.in.readAllBytes(),
+          Charset.defaultCharset());
+      bytes = source.getBytes(StandardCharsets.UTF_8);
+    } else {
+      kind = PATH;
+      bytes = Paths.get(script).toAbsolutePath().toString()
+          .getBytes(StandardCharsets.UTF_8);
+    }
+
+    try (SocketChannel channel =
+             SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+      DataOutputStream out =
+          new DataOutputStream(Channels.newOutputStream(channel));
+      frame(out, kind, bytes, 0, bytes.length);
+
+      InputStream input =
+          new BufferedInputStream(Channels.newInputStream(channel));
+      DataInputStream in = new DataInputStream(input);
+      for (;;) {
+        byte frame = in.readByte();
+        if (frame == EXIT) {
+          System.out.flush();
+          return in.readInt();
+        }
+        if (frame != OUT && frame != ERR) {
+          throw new IOException("Bad frame kind " + frame + ".");
+        }
+
+        int length = length(in, BUFFER_SIZE);
+        byte[] data = new byte[length];
+        in.readFully(data);
+        PrintStream target = frame == OUT ? System.out : System.err;
+        target.write(data, 0, length);
+        target.flush();
+      }
+    }
+  }
+}
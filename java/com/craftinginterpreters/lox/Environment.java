@@ -8,18 +8,59 @@ class Environment {
 //> enclosing-field
   final Environment enclosing;
 //< enclosing-field
-  private final Map<String, Object> values = new HashMap<>();
+  private Map<String, Object> values;
+
+  // False when [values] is given, see LoxScriptEngine.
+  private final boolean owned;
+
+  // The flag of the globals, see Concurrency.Sharing.
+  final Concurrency.Sharing sharing;
 //> environment-constructors
   Environment() {
     enclosing = null;
+    values = new HashMap<>();
+    owned = true;
+    sharing = new Concurrency.Sharing();
   }
 
   Environment(Environment enclosing) {
     this.enclosing = enclosing;
+    values = new HashMap<>();
+    owned = true;
+    sharing = enclosing.sharing;
   }
 //< environment-constructors
+
+  // Holds its variables in [values], the bindings of the host, see
+  // LoxScriptEngine. It is not replaced by a SharedMap, it must be safe to
+  // use already if Lox code may run on several threads.
+  Environment(Map<String, Object> values, Environment enclosing) {
+    this.enclosing = enclosing;
+    this.values = values;
+    owned = false;
+    sharing = enclosing.sharing;
+  }
+
+  // Once the script runs on several threads, see Concurrency.Sharing, the
+  // variables are moved to a SharedMap.
+  private Map<String, Object> values() {
+    Map<String, Object> values = this.values;
+    if (sharing.enabled && owned && !(values instanceof SharedMap)) {
+      values = share();
+    }
+    return values;
+  }
+
+  // The fields of a SharedMap are final, so a thread that reads the new map
+  // without the lock sees it whole. One that still reads the old map takes
+  // the lock and finds the new one.
+  private synchronized Map<String, Object> share() {
+    if (!(values instanceof SharedMap)) values = new SharedMap(values);
+    return values;
+  }
 //> environment-get
   Object get(Token name) {
+    Map<String, Object> values = values();
     if (values.containsKey(name.lexeme)) {
       return values.get(name.lexeme);
     }
@@ -34,6 +75,7 @@ class Environment {
 //< environment-get
 //> environment-assign
   void assign(Token name, Object value) {
+    Map<String, Object> values = values();
     if (values.containsKey(name.lexeme)) {
       values.put(name.lexeme, value);
       return;
@@ -52,7 +94,7 @@ class Environment {
 //< environment-assign
 //> environment-define
   void define(String name, Object value) {
-    values.put(name, value);
+    values().put(name, value);
   }
 //< environment-define
 //> Resolving and Binding not-yet
@@ -62,7 +104,7 @@ class Environment {
       environment = environment.enclosing;
     }
 
-    return environment.values.get(name);
+    return environment.values().get(name);
   }
 
   void assignAt(int distance, Token name, Object value) {
@@ -71,13 +113,13 @@ class Environment {
       environment = environment.enclosing;
     }
 
-    environment.values.put(name.lexeme, value);
+    environment.values().put(name.lexeme, value);
   }
 //< Resolving and Binding not-yet
 //> omit
   @Override
   public String toString() {
-    String result = values.toString();
+    String result = values().toString();
     if (enclosing != null) {
       result += " -> " + enclosing.toString();
     }
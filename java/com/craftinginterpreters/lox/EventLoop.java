@@ -0,0 +1,345 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.Charset;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// The native functions that read and write files without waiting for them:
+//
+//   readFile(path)        A promise of the text of the file.
+//   writeFile(path, text) A promise of nil, once the file is written.
+//   then(promise, fn)     A promise of fn(value), once promise is fulfilled.
+//                         If fn returns a promise, of its value.
+//   await(promise)        Waits for the promise and returns its value.
+//
+// The reads and the writes run on AsynchronousFileChannels, so a script can
+// have thousands of them in flight. When one completes, its promise is not
+// settled on the thread of the channel but handed to the event loop of the
+// Interpreter that started it. The loop settles the promises, and so runs
+// the functions given to then(), on the thread of the script: when it
+// awaits a promise, and at the end of the script until no I/O is left.
+// Each time it wakes up, it takes all the completions that arrived since.
+//
+// A promise belongs to the event loop that started its read or write: a
+// task spawned by the script, see Concurrency, or a slice of parallelMap,
+// see Parallel, has its own loop on its own thread. Only that loop settles
+// the promise, so any other one fails to await it or to give it to then(),
+// with a runtime error, instead of waiting for a promise it cannot settle
+// or running the function on the wrong thread.
+//
+// A promise of a failed read or write is rejected: then() passes the error
+// on to its own promise, await() reports it as a runtime error, and so does
+// the end of the script if nobody asked for the promise.
+final class EventLoop {
+  private final Interpreter interpreter;
+
+  // Filled by the threads of the channels.
+  private final BlockingQueue<Runnable> completions =
+      new LinkedBlockingQueue<>();
+
+  // The reads and writes started and not settled yet.
+  private int pending = 0;
+
+  // The rejected promises nobody has asked for.
+  private final List<Promise> unhandled = new ArrayList<>();
+
+  EventLoop(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  static void defineNatives(Environment globals) {
+    globals.define("readFile", new Native(1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return interpreter.events().read(string(arguments.get(0)));
+      }
+    });
+
+    globals.define("writeFile", new Native(2) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return interpreter.events().write(string(arguments.get(0)),
+            string(arguments.get(1)));
+      }
+    });
+
+    globals.define("then", new Native(2) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Promise promise = interpreter.events().own(arguments.get(0));
+        Object function = arguments.get(1);
+        if (!(function instanceof Callable)) {
+          throw new RuntimeError(null,
+              "Can only call functions and classes.");
+        }
+        return interpreter.events().then(promise, (Callable)function);
+      }
+    });
+
+    globals.define("await", new Native(1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        EventLoop events = interpreter.events();
+        return events.await(events.own(arguments.get(0)));
+      }
+    });
+  }
+
+  static final class Promise {
+    private final EventLoop loop;
+    private boolean settled = false;
+    private Object value;
+    private String error;
+
+    // Run once settled.
+    private List<Runnable> reactions = new ArrayList<>();
+
+    private boolean handled = false;
+
+    private Promise(EventLoop loop) {
+      this.loop = loop;
+    }
+
+    // Does nothing if the promise is settled already.
+    private void settle(Object value, String error) {
+      if (settled) return;
+      settled = true;
+      this.value = value;
+      this.error = error;
+
+      List<Runnable> reactions = this.reactions;
+      this.reactions = null;
+      for (Runnable reaction : reactions) {
+        reaction.run();
+      }
+    }
+
+    private void onSettled(Runnable reaction) {
+      handled = true;
+      if (settled) {
+        reaction.run();
+      } else {
+        reactions.add(reaction);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "<promise>";
+    }
+  }
+
+  // Runs the completions until no read or write is left.
+  void run() {
+    while (pending > 0) {
+      runBatch();
+    }
+
+    if (!unhandled.isEmpty()) {
+      Promise promise = unhandled.get(0);
+      unhandled.clear();
+      throw new RuntimeError(null, promise.error);
+    }
+  }
+
+  private Object await(Promise promise) {
+    promise.handled = true;
+    unhandled.remove(promise);
+    while (!promise.settled) {
+      // Only the completions of reads and writes settle promises.
+      if (pending == 0) {
+        throw new RuntimeError(null, "Promise never settles.");
+      }
+      runBatch();
+    }
+
+    if (promise.error != null) throw new RuntimeError(null, promise.error);
+    return promise.value;
+  }
+
+  // A completion can run a function given to then() that awaits, and so
+  // runs a batch of its own: each batch has its own list.
+  private void runBatch() {
+    List<Runnable> batch = new ArrayList<>();
+    batch.add(interpreter.waitFor(this::take));
+    completions.drainTo(batch);
+
+    // They are no longer pending, so they all run even if one fails, then
+    // the first error is thrown.
+    pending -= batch.size();
+    RuntimeError error = null;
+    for (Runnable completion : batch) {
+      try {
+        completion.run();
+      } catch (RuntimeError e) {
+        if (error == null) error = e;
+      }
+    }
+    if (error != null) throw error;
+  }
+
+  private Runnable take() {
+    try {
+      return completions.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeError(null, "Interrupted.");
+    }
+  }
+
+  private Promise then(Promise promise, Callable function) {
+    unhandled.remove(promise);
+    Promise result = new Promise(this);
+    promise.onSettled(() -> {
+      if (promise.error != null) {
+        reject(result, promise.error);
+        return;
+      }
+
+      Object value = function.call(interpreter, Arrays.asList(promise.value));
+      if (value instanceof Promise) {
+        Promise inner = (Promise)value;
+        unhandled.remove(inner);
+        inner.onSettled(() -> {
+          if (inner.error != null) {
+            reject(result, inner.error);
+          } else {
+            result.settle(inner.value, null);
+          }
+        });
+      } else {
+        result.settle(value, null);
+      }
+    });
+    return result;
+  }
+
+  private void reject(Promise promise, String error) {
+    if (promise.settled) return;
+    if (!promise.handled) unhandled.add(promise);
+    promise.settle(null, error);
+  }
+
+  // Called on the thread of a channel, or right away if the file cannot be
+  // opened.
+  private void complete(Promise promise, Object value, String error) {
+    completions.add(() -> {
+      if (error != null) {
+        reject(promise, error);
+      } else {
+        promise.settle(value, null);
+      }
+    });
+  }
+
+  private Promise read(String path) {
+    Promise promise = new Promise(this);
+    pending++;
+    AsynchronousFileChannel channel;
+    ByteBuffer buffer;
+    try {
+      channel = AsynchronousFileChannel.open(Paths.get(path),
+          StandardOpenOption.READ);
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        channel.close();
+        throw new IOException("File too large.");
+      }
+      buffer = ByteBuffer.allocate((int)size);
+    } catch (IOException | InvalidPathException e) {
+      complete(promise, null, "Cannot read " + path + ".");
+      return promise;
+    }
+
+    channel.read(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+      @Override
+      public void completed(Integer count, Void attachment) {
+        if (count != -1 && buffer.hasRemaining()) {
+          channel.read(buffer, buffer.position(), null, this);
+          return;
+        }
+
+        close(channel);
+        buffer.flip();
+        complete(promise, Charset.defaultCharset().decode(buffer).toString(),
+            null);
+      }
+
+      @Override
+      public void failed(Throwable exception, Void attachment) {
+        close(channel);
+        complete(promise, null, "Cannot read " + path + ".");
+      }
+    });
+    return promise;
+  }
+
+  private Promise write(String path, String text) {
+    Promise promise = new Promise(this);
+    pending++;
+    AsynchronousFileChannel channel;
+    try {
+      channel = AsynchronousFileChannel.open(Paths.get(path),
+          StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING);
+    } catch (IOException | InvalidPathException e) {
+      complete(promise, null, "Cannot write " + path + ".");
+      return promise;
+    }
+
+    ByteBuffer buffer = Charset.defaultCharset().encode(text);
+    channel.write(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+      @Override
+      public void completed(Integer count, Void attachment) {
+        if (buffer.hasRemaining()) {
+          channel.write(buffer, buffer.position(), null, this);
+          return;
+        }
+
+        close(channel);
+        complete(promise, null, null);
+      }
+
+      @Override
+      public void failed(Throwable exception, Void attachment) {
+        close(channel);
+        complete(promise, null, "Cannot write " + path + ".");
+      }
+    });
+    return promise;
+  }
+
+  private static void close(AsynchronousFileChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // The data is read, or the write failed already.
+    }
+  }
+
+  private static String string(Object value) {
+    if (value instanceof String) return (String)value;
+    throw new RuntimeError(null, "Operand must be a string.");
+  }
+
+  private Promise own(Object value) {
+    if (!(value instanceof Promise)) {
+      throw new RuntimeError(null, "Operand must be a promise.");
+    }
+    Promise promise = (Promise)value;
+    if (promise.loop != this) {
+      throw new RuntimeError(null, "Promise belongs to another thread.");
+    }
+    return promise;
+  }
+}
@@ -0,0 +1,33 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Set;
+
+// The execution state shared by every closure created from the same function
+// declaration: how many times it has been called and, once it is hot enough,
+// its body compiled by the ClosureCompiler.
+final class FunctionSite {
+  final Stmt.Function declaration;
+
+  // Racy on purpose, this is only a heuristic.
+  int invocations;
+  boolean requested;
+
+  volatile ClosureCompiler.FunctionNode compiled;
+
+  // The statements of the body that contain a yield, empty if the function
+  // is not a generator. Racy too, every thread computes the same set.
+  private Set<Stmt> yields;
+
+  FunctionSite(Stmt.Function declaration) {
+    this.declaration = declaration;
+  }
+
+  Set<Stmt> yields() {
+    Set<Stmt> yields = this.yields;
+    if (yields == null) {
+      yields = LoxGenerator.yields(declaration);
+      this.yields = yields;
+    }
+    return yields;
+  }
+}
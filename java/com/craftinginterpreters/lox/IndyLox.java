@@ -54,7 +54,7 @@ public class IndyLox {
       functionMap.putAll(gatherFields(type, true));
       functionMap.putAll(gatherMethods(type, true));
       LoxClass loxClass = new LoxClass(type.getName() + "$static", null, functionMap);
-      return new LoxInstance(loxClass);
+      return new LoxInstance(loxClass, INTERPRETER.globals.sharing);
     }
   };
   
@@ -94,7 +94,7 @@ public class IndyLox {
         }
         Constructor<?> constructor = (Constructor<?>)member;
         Object result = constructor.newInstance(args);
-        thiz.fields.put("wrapped", result);
+        thiz.fields().put("wrapped", result);
         return thiz;
       } catch(InvocationTargetException e) {
         Throwable cause = e.getCause();
@@ -310,8 +310,8 @@ public class IndyLox {
       return null;
     }
     LoxClass loxClass = CLASS_CACHE.get(object.getClass());
-    LoxInstance instance = new LoxInstance(loxClass);
-    instance.fields.put("wrapped", object);
+    LoxInstance instance = new LoxInstance(loxClass, INTERPRETER.globals.sharing);
+    instance.fields().put("wrapped", object);
     return instance;
   }
   static Object unwrap(Object object) {
@@ -323,7 +323,7 @@ public class IndyLox {
     if (klass.name.indexOf('.') == -1) {
       throw new RuntimeError(token(""), "can not convert a lox instance to a Java instance");
     }
-    return instance.fields.get("wrapped");
+    return instance.fields().get("wrapped");
   }
   static Object unboxTo(Object loxObject, Class<?> type) {
     if (loxObject instanceof LoxInstance) {
@@ -371,7 +371,7 @@ public class IndyLox {
     if (loxObject instanceof LoxInstance) {
       LoxInstance instance = (LoxInstance)loxObject;
       if (getKlass(loxObject).name.indexOf(".") != -1) {
-        return instance.fields.get("wrapped").toString();
+        return instance.fields().get("wrapped").toString();
       }
     }
     return loxObject.toString();
@@ -1,18 +1,21 @@
 //> Evaluating Expressions interpreter-class
 package com.craftinginterpreters.lox;
 
+import java.nio.charset.Charset;
 //> Functions not-yet
 import java.util.ArrayList;
 //< Functions not-yet
 //> Classes not-yet
 import java.util.HashMap;
 //< Classes not-yet
+import java.util.IdentityHashMap;
 //> Statements and State import-list
 import java.util.List;
 //< Statements and State import-list
 //> Resolving and Binding not-yet
 import java.util.Map;
 //< Resolving and Binding not-yet
+import java.util.function.Supplier;
 
 /* Evaluating Expressions interpreter-class < Statements and State interpreter
 class Interpreter implements Expr.Visitor<Object> {
@@ -25,15 +28,75 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 */
 //> Functions not-yet
-  final Environment globals = new Environment();
-  private Environment environment = globals;
+  final Environment globals;
+  private Environment environment;
 //< Functions not-yet
 //> Resolving and Binding not-yet
 
-  private Map<Expr, Integer> locals;
+  Map<Expr, Integer> locals;
 //< Resolving and Binding not-yet
+  private final Map<Stmt.Function, FunctionSite> sites =
+      new IdentityHashMap<>();
+  private final Map<Stmt.While, LoopSite> loops = new IdentityHashMap<>();
+
+  // Set by Lox when jlox runs with -Dlox.profile.
+  Profile profile;
+
+  // Set while an iteration of a hot loop is recorded.
+  Trace trace;
+
+  // Where print writes, each line at once unless the host buffers it, see
+  // Lox and Context.
+  Printer out = new Printer(System.out, Charset.defaultCharset(), 0, false);
+
+  // Set by a Context that limits or schedules its scripts.
+  Budget budget;
+
+  // Created by the first read or write of a file.
+  private EventLoop events;
+
 //> Functions not-yet
   Interpreter() {
+    globals = new Environment();
+    environment = globals;
+    defineNatives(globals);
+  }
+
+  // Runs with the given globals, which can be backed by a map of the host
+  // and enclose an Environment of natives, see LoxScriptEngine.
+  Interpreter(Environment globals) {
+    this.globals = globals;
+    environment = globals;
+  }
+
+  // An Interpreter for another thread, with the same globals but its own
+  // environments, see Concurrency.
+  Interpreter fork() {
+    Interpreter fork = new Interpreter(globals);
+    fork.locals = locals;
+    fork.out = out;
+    if (budget != null) fork.budget = budget.fork();
+    return fork;
+  }
+
+  // Called by the thread of a fork once it is done with it, see Budget.end.
+  void endFork() {
+    if (budget != null) budget.end();
+  }
+
+  // Runs [wait], which blocks the thread until another one acts, without
+  // holding the turn of the script, see Scheduler.
+  <T> T waitFor(Supplier<T> wait) {
+    if (budget == null) return wait.get();
+    budget.beginWait();
+    try {
+      return wait.get();
+    } finally {
+      budget.endWait();
+    }
+  }
+
+  static void defineNatives(Environment globals) {
     globals.define("clock", new Callable() {
       @Override
       public int requiredArguments() {
@@ -46,6 +109,21 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return (double)System.currentTimeMillis() / 1000.0;
       }
     });
+    Concurrency.defineNatives(globals);
+    Parallel.defineNatives(globals);
+    LoxGenerator.defineNatives(globals);
+    EventLoop.defineNatives(globals);
+    MappedFile.defineNatives(globals);
+  }
+
+  EventLoop events() {
+    if (events == null) events = new EventLoop(this);
+    return events;
+  }
+
+  // Waits for the reads and the writes of files the script started.
+  void runEvents() {
+    if (events != null) events.run();
   }
 //< Functions not-yet
 /* Evaluating Expressions interpret < Statements and State interpret
@@ -68,14 +146,35 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 //< Resolving and Binding not-yet
     try {
+      if (profile != null) profile.warmUp(this, statements);
       for (Stmt statement : statements) {
         execute(statement);
       }
+      runEvents();
     } catch (RuntimeError error) {
+      out.flush();
       Lox.runtimeError(error);
     }
   }
 //< Statements and State interpret
+  // Runs [statements] and returns the value of the last one if it is an
+  // expression statement, or nil. A RuntimeError is thrown, not reported,
+  // see LoxScriptEngine.
+  Object run(List<Stmt> statements, Map<Expr, Integer> locals) {
+    this.locals = locals;
+
+    Object value = null;
+    for (Stmt statement : statements) {
+      if (statement instanceof Stmt.Expression) {
+        value = evaluate(((Stmt.Expression)statement).expression);
+      } else {
+        execute(statement);
+        value = null;
+      }
+    }
+    runEvents();
+    return value;
+  }
 //> evaluate
   private Object evaluate(Expr expr) {
     return expr.accept(this);
@@ -86,6 +185,28 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     stmt.accept(this);
   }
 //< Statements and State execute
+
+  // Runs a statement of a generator, which keeps its own environments, see
+  // LoxGenerator.
+  void execute(Stmt stmt, Environment environment) {
+    Environment previous = this.environment;
+    try {
+      this.environment = environment;
+      execute(stmt);
+    } finally {
+      this.environment = previous;
+    }
+  }
+
+  Object evaluate(Expr expr, Environment environment) {
+    Environment previous = this.environment;
+    try {
+      this.environment = environment;
+      return evaluate(expr);
+    } finally {
+      this.environment = previous;
+    }
+  }
 //> Statements and State execute-block
   void executeBlock(List<Stmt> statements, Environment environment) {
     Environment previous = this.environment;
@@ -100,6 +221,21 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
   }
 //< Statements and State execute-block
+  // All the closures of a declaration share the same site.
+  FunctionSite site(Stmt.Function declaration) {
+    FunctionSite site = sites.get(declaration);
+    if (site == null) {
+      site = new FunctionSite(declaration);
+      sites.put(declaration, site);
+    }
+    return site;
+  }
+
+  LoxFunction function(Stmt.Function declaration, Environment closure,
+                       boolean isInitializer) {
+    return new LoxFunction(declaration, closure, isInitializer,
+        site(declaration));
+  }
 //> Statements and State visit-block
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
@@ -129,7 +265,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 //< Inheritance not-yet
     for (Stmt.Function method : stmt.methods) {
-      LoxFunction function = new LoxFunction(method, environment,
+      LoxFunction function = function(method, environment,
           method.name.lexeme.equals("init"));
         methods.put(method.name.lexeme, function);
     }
@@ -166,7 +302,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     LoxFunction function = new LoxFunction(stmt, environment);
 */
 //> Classes not-yet
-    LoxFunction function = new LoxFunction(stmt, environment, false);
+    LoxFunction function = function(stmt, environment, false);
 //< Classes not-yet
     environment.assign(stmt.name, function);
     return null;
@@ -188,7 +324,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   @Override
   public Void visitPrintStmt(Stmt.Print stmt) {
     Object value = evaluate(stmt.expression);
-    System.out.println(stringify(value));
+    out.println(value);
     return null;
   }
 //< Statements and State visit-print
@@ -217,13 +353,56 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 //> Control Flow not-yet
   @Override
   public Void visitWhileStmt(Stmt.While stmt) {
+    LoopSite site = loops.get(stmt);
+    if (site == null) {
+      site = new LoopSite(stmt);
+      loops.put(stmt, site);
+    }
+
     while (isTruthy(evaluate(stmt.condition))) {
       execute(stmt.body);
+      if (budget != null) budget.step(stmt);
+
+      if (site.backEdges < Tiers.THRESHOLD) {
+        site.backEdges++;
+        continue;
+      }
+
+      // Inside a recorded iteration, stay in the Interpreter.
+      if (trace != null) continue;
+
+      ClosureCompiler.StmtNode compiled = site.compiled;
+      if (compiled != null) {
+        // The live variables are all in the environment, so the compiled
+        // loop can take over from here.
+        Object result = compiled.execute(this, environment, null);
+        if (result != ClosureCompiler.NEXT) throw new Return(result);
+        break;
+      }
+
+      if (!site.requested) {
+        // Records the next iteration and compiles the loop for its path.
+        Trace recorded = new Trace();
+        trace = recorded;
+        try {
+          if (!isTruthy(evaluate(stmt.condition))) break;
+          execute(stmt.body);
+        } finally {
+          trace = null;
+        }
+        Tiers.compile(site, locals, recorded);
+      }
     }
     return null;
   }
 //< Control Flow not-yet
 //> Statements and State visit-assign
+  @Override
+  public Void visitYieldStmt(Stmt.Yield stmt) {
+    // Run by LoxGenerator, never by the Interpreter.
+    throw new AssertionError();
+  }
+
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
     Object value = evaluate(expr.value);
@@ -248,6 +427,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   public Object visitBinaryExpr(Expr.Binary expr) {
     Object left = evaluate(expr.left);
     Object right = evaluate(expr.right); // [left]
+    if (profile != null) profile.recordOperands(expr, left, right);
+    if (trace != null) trace.recordOperands(expr, left, right);
 
     switch (expr.operator.type) {
 //> binary-equality
@@ -317,6 +498,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   @Override
   public Object visitCallExpr(Expr.Call expr) {
     Object callee = evaluate(expr.callee);
+    if (profile != null) profile.recordTarget(expr, callee);
+    if (trace != null) trace.recordTarget(expr, callee);
 
     List<Object> arguments = new ArrayList<>();
     for (Expr argument : expr.arguments) {
@@ -335,7 +518,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       throw new RuntimeError(expr.paren, "Not enough arguments.");
     }
 
-    return function.call(this, arguments);
+    try {
+      return function.call(this, arguments);
+    } catch (RuntimeError error) {
+      // A native function does not know where it is called from.
+      if (error.token != null) throw error;
+      throw new RuntimeError(expr.paren, error.getMessage());
+    }
   }
 //< Functions not-yet
 //> Classes not-yet
@@ -343,6 +532,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   @Override
   public Object visitGetExpr(Expr.Get expr) {
     Object object = evaluate(expr.object);
+    if (trace != null) trace.recordReceiver(expr, object);
     if (object instanceof LoxInstance) {
       return ((LoxInstance) object).getProperty(expr.name);
     }
@@ -388,7 +578,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     Object object = evaluate(expr.object);
 
     if (object instanceof LoxInstance) {
-      ((LoxInstance)object).fields.put(expr.name.lexeme, value);
+      ((LoxInstance)object).fields().put(expr.name.lexeme, value);
       return value;
     }
 
@@ -479,14 +669,14 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   }
 //< check-operands
 //> is-truthy
-  private boolean isTruthy(Object object) {
+  boolean isTruthy(Object object) {
     if (object == null) return false;
     if (object instanceof Boolean) return (boolean)object;
     return true;
   }
 //< is-truthy
 //> is-equal
-  private boolean isEqual(Object a, Object b) {
+  boolean isEqual(Object a, Object b) {
     // nil is only equal to nil.
     if (a == null && b == null) return true;
     if (a == null) return false;
@@ -495,7 +685,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   }
 //< is-equal
 //> stringify
-  private String stringify(Object object) {
+  String stringify(Object object) {
     if (object == null) return "nil";
 
     // Hack. Work around Java adding ".0" to integer-valued doubles.
@@ -0,0 +1,876 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+// Compiles a resolved script ahead of time into a jar that runs with
+// "java -jar", for loxc.
+//
+// The script is translated to the Java source of a class, Script, which is
+// compiled with the system Java compiler and packaged with the small runtime
+// library of the package com.craftinginterpreters.runtime, the equivalent of
+// LoxClass, LoxInstance and the operations of the Interpreter.
+//
+// Each Lox function becomes an anonymous class, its local variables become
+// Java local variables, or Cells when a nested function captures them, and
+// its global variables become static fields. Expressions are flattened into
+// temporary variables so they are evaluated in the same order as in jlox.
+final class JarCompiler {
+  private static final String RUNTIME = "com/craftinginterpreters/runtime/";
+  private static final String SCRIPT = "com.craftinginterpreters.runtime.Script";
+
+  private final Map<Expr, Integer> locals;
+
+  JarCompiler(Map<Expr, Integer> locals) {
+    this.locals = locals;
+  }
+
+  // Reports an error instead if the script uses a feature the runtime does
+  // not have.
+  void compile(List<Stmt> statements, Path jar) throws IOException {
+    Path runtime = runtimeDirectory();
+    Set<Token> captures = new Captures().analyze(statements);
+    if (Lox.hadError) return;
+
+    String source = new Generator(captures).generate(statements);
+
+    Path classes = Files.createTempDirectory("loxc");
+    try {
+      javac(source, runtime, classes);
+      writeJar(jar, classes, runtime);
+    } finally {
+      delete(classes);
+    }
+  }
+
+  // The directory the runtime classes are loaded from.
+  private static Path runtimeDirectory() throws IOException {
+    URL url = JarCompiler.class.getClassLoader()
+        .getResource(RUNTIME + "LoxRuntime.class");
+    if (url == null || !url.getProtocol().equals("file")) {
+      throw new IOException(
+          "Cannot find the Lox runtime, build it with 'make loxc'.");
+    }
+
+    try {
+      return Paths.get(url.toURI()).getParent();
+    } catch (URISyntaxException e) {
+      throw new IOException(e);
+    }
+  }
+
+  // The runtime directory is <classpath>/com/craftinginterpreters/runtime.
+  private static Path classpath(Path runtime) {
+    return runtime.getParent().getParent().getParent();
+  }
+
+  private static void javac(String source, Path runtime, Path classes)
+      throws IOException {
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    if (javac == null) {
+      throw new IOException("loxc requires a JDK, not a JRE.");
+    }
+
+    JavaFileObject file = new SimpleJavaFileObject(
+        URI.create("string:///" + SCRIPT.replace('.', '/') + ".java"),
+        JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return source;
+      }
+    };
+
+    DiagnosticCollector<JavaFileObject> diagnostics =
+        new DiagnosticCollector<>();
+    List<String> options = Arrays.asList(
+        "-nowarn",
+        "-d", classes.toString(),
+        "-cp", classpath(runtime).toString());
+    boolean success = javac.getTask(null, null, diagnostics, options, null,
+        Collections.singletonList(file)).call();
+    if (!success) {
+      // The generated code is wrong, not the script.
+      throw new IOException("Cannot compile the generated code: " +
+          diagnostics.getDiagnostics());
+    }
+  }
+
+  private static void writeJar(Path jar, Path classes, Path runtime)
+      throws IOException {
+    Manifest manifest = new Manifest();
+    Attributes attributes = manifest.getMainAttributes();
+    attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    attributes.put(Attributes.Name.MAIN_CLASS, SCRIPT);
+
+    try (OutputStream output = Files.newOutputStream(jar);
+         JarOutputStream out = new JarOutputStream(output, manifest)) {
+      for (Path file : classFiles(runtime)) {
+        add(out, RUNTIME + file.getFileName(), file);
+      }
+
+      for (Path file : classFiles(classes.resolve(RUNTIME))) {
+        add(out, RUNTIME + file.getFileName(), file);
+      }
+    }
+  }
+
+  private static List<Path> classFiles(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .filter(file -> file.toString().endsWith(".class"))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static void add(JarOutputStream out, String name, Path file)
+      throws IOException {
+    out.putNextEntry(new JarEntry(name));
+    Files.copy(file, out);
+    out.closeEntry();
+  }
+
+  private static void delete(Path directory) throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : files.sorted(Comparator.reverseOrder())
+          .collect(Collectors.toList())) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  // Finds the local variables a nested function refers to, they are the
+  // only ones that need a Cell. Mirrors the scopes of the Resolver.
+  private class Captures implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final Set<Token> captured =
+        Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // The declaration of each variable of each scope, and the function that
+    // declares it.
+    private final List<Map<String, Token>> scopes = new ArrayList<>();
+    private final Map<Token, Integer> functions = new IdentityHashMap<>();
+    private int function;
+
+    Set<Token> analyze(List<Stmt> statements) {
+      resolve(statements);
+      return captured;
+    }
+
+    private void resolve(List<Stmt> statements) {
+      for (Stmt statement : statements) {
+        statement.accept(this);
+      }
+    }
+
+    private void resolve(Expr expr) {
+      expr.accept(this);
+    }
+
+    private void declare(Token name) {
+      if (scopes.isEmpty()) return;
+
+      scopes.get(scopes.size() - 1).put(name.lexeme, name);
+      functions.put(name, function);
+    }
+
+    private void refer(Expr expr, Token name) {
+      Integer distance = locals.get(expr);
+      if (distance == null) return;
+
+      Token declaration =
+          scopes.get(scopes.size() - 1 - distance).get(name.lexeme);
+      // "this" and "super" are never reassigned, they need no Cell.
+      if (declaration == null) return;
+
+      if (functions.get(declaration) != function) captured.add(declaration);
+    }
+
+    private void resolveFunction(Stmt.Function stmt) {
+      function++;
+      scopes.add(new HashMap<>());
+      for (Token parameter : stmt.parameters) {
+        declare(parameter);
+      }
+      resolve(stmt.body);
+      scopes.remove(scopes.size() - 1);
+      function--;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      scopes.add(new HashMap<>());
+      resolve(stmt.statements);
+      scopes.remove(scopes.size() - 1);
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      declare(stmt.name);
+      if (stmt.superclass != null) {
+        resolve(stmt.superclass);
+        scopes.add(new HashMap<>());
+      }
+
+      scopes.add(new HashMap<>());
+      for (Stmt.Function method : stmt.methods) {
+        resolveFunction(method);
+      }
+      scopes.remove(scopes.size() - 1);
+
+      if (stmt.superclass != null) scopes.remove(scopes.size() - 1);
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      resolve(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      declare(stmt.name);
+      resolveFunction(stmt);
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      resolve(stmt.condition);
+      stmt.thenBranch.accept(this);
+      if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      resolve(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      if (stmt.value != null) resolve(stmt.value);
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      if (stmt.initializer != null) resolve(stmt.initializer);
+      declare(stmt.name);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      resolve(stmt.condition);
+      stmt.body.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+      Lox.error(stmt.keyword, "loxc does not support generators.");
+      return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      resolve(expr.value);
+      refer(expr, expr.name);
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      resolve(expr.left);
+      resolve(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      resolve(expr.callee);
+      for (Expr argument : expr.arguments) {
+        resolve(argument);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+      resolve(expr.object);
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      resolve(expr.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      resolve(expr.left);
+      resolve(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+      resolve(expr.value);
+      resolve(expr.object);
+      return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      resolve(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      refer(expr, expr.name);
+      return null;
+    }
+  }
+
+  // A local variable of the generated code.
+  private static class Local {
+    final String name;
+    final boolean isCell;
+
+    Local(String name, boolean isCell) {
+      this.name = name;
+      this.isCell = isCell;
+    }
+
+    String read() {
+      return isCell ? name + ".value" : name;
+    }
+  }
+
+  // Generates the Java source of the script. Each expression visitor
+  // writes the statements that evaluate the expression and returns a Java
+  // expression for its value, either a literal or a temporary variable.
+  private class Generator implements Expr.Visitor<String>,
+                                     Stmt.Visitor<Void> {
+    private final Set<Token> captured;
+    private final StringBuilder code = new StringBuilder();
+    private int indent;
+    private int names;
+
+    // The Java variables of the local variables in each scope, mirroring
+    // the scopes of the Resolver.
+    private final List<Map<String, Local>> scopes = new ArrayList<>();
+
+    // The Lox globals, in order of appearance.
+    private final Set<String> globals = new LinkedHashSet<>();
+
+    Generator(Set<Token> captured) {
+      this.captured = captured;
+    }
+
+    String generate(List<Stmt> statements) {
+      indent = 2;
+      statements(statements);
+      String run = code.toString();
+      code.setLength(0);
+
+      indent = 0;
+      line("package com.craftinginterpreters.runtime;");
+      line("");
+      line("import java.util.HashMap;");
+      line("import java.util.Map;");
+      line("");
+      line("final class Script {");
+      indent++;
+      globals.add("clock");
+      for (String global : globals) {
+        line("private static Object g_" + global + " = " +
+            (global.equals("clock") ? "LoxRuntime.CLOCK" : "LoxRuntime.UNDEFINED") +
+            ";");
+      }
+      line("");
+      line("public static void main(String[] args) {");
+      line("  LoxRuntime.run(Script::run);");
+      line("}");
+      line("");
+      line("private static void run() {");
+      code.append(run);
+      line("}");
+      indent--;
+      line("}");
+      return code.toString();
+    }
+
+    private void line(String line) {
+      for (int i = 0; i < indent; i++) {
+        code.append("  ");
+      }
+      code.append(line).append('\n');
+    }
+
+    private String name(String prefix) {
+      return prefix + "_" + names++;
+    }
+
+    private String temp(String value) {
+      String temp = name("t");
+      line("Object " + temp + " = " + value + ";");
+      return temp;
+    }
+
+    private void statements(List<Stmt> statements) {
+      for (Stmt statement : statements) {
+        statement.accept(this);
+      }
+    }
+
+    private String expression(Expr expr) {
+      return expr.accept(this);
+    }
+
+    // Java rejects the code after a return, Lox does not.
+    private void returns(String value) {
+      line("if (true) return " + value + ";");
+    }
+
+    private void beginScope() {
+      scopes.add(new HashMap<>());
+    }
+
+    private void endScope() {
+      scopes.remove(scopes.size() - 1);
+    }
+
+    private void beginBlock() {
+      line("{");
+      indent++;
+    }
+
+    private void endBlock() {
+      indent--;
+      line("}");
+    }
+
+    // Declares the variable [name] with [value] and returns its Java
+    // variable, or null for a global.
+    private Local declare(Token name, String value) {
+      if (scopes.isEmpty()) {
+        globals.add(name.lexeme);
+        line("g_" + name.lexeme + " = " + value + ";");
+        return null;
+      }
+
+      Local local = new Local(name("v_" + name.lexeme),
+          captured.contains(name));
+      if (local.isCell) {
+        line("final Cell " + local.name + " = new Cell(" + value + ");");
+      } else {
+        line("Object " + local.name + " = " + value + ";");
+      }
+      scopes.get(scopes.size() - 1).put(name.lexeme, local);
+      return local;
+    }
+
+    private Local declareParameter(String javaName, Token name) {
+      Local local;
+      if (captured.contains(name)) {
+        local = new Local(name("v_" + name.lexeme), true);
+        line("final Cell " + local.name + " = new Cell(" + javaName + ");");
+      } else {
+        local = new Local(javaName, false);
+      }
+      scopes.get(scopes.size() - 1).put(name.lexeme, local);
+      return local;
+    }
+
+    // Returns the Java variable of a local, or null for a global.
+    private Local resolve(Expr expr, String name) {
+      Integer distance = locals.get(expr);
+      if (distance == null) {
+        globals.add(name);
+        return null;
+      }
+
+      return scopes.get(scopes.size() - 1 - distance).get(name);
+    }
+
+    // Assigns the variable [name] declared by [local], or the global if
+    // null, once defined.
+    private void assign(Local local, Token name, String value) {
+      if (local == null) {
+        globals.add(name.lexeme);
+        line("g_" + name.lexeme + " = " + value + ";");
+      } else {
+        line(local.read() + " = " + value + ";");
+      }
+    }
+
+    private String function(Stmt.Function function, boolean isMethod,
+                            boolean isInitializer) {
+      String arguments = name("arguments");
+      String self = null;
+      if (isMethod) {
+        self = name("self");
+        line("new LoxMethod(" + string(function.name.lexeme) + ", " +
+            function.parameters.size() + ", " + isInitializer + ") {");
+        indent++;
+        line("@Override");
+        line("Object invoke(LoxInstance " + self + ", Object[] " +
+            arguments + ") {");
+      } else {
+        line("new LoxFunction(" + string(function.name.lexeme) + ", " +
+            function.parameters.size() + ") {");
+        indent++;
+        line("@Override");
+        line("public Object call(Object[] " + arguments + ") {");
+      }
+      indent++;
+
+      if (isMethod) {
+        // The scope of "this", opened by the Resolver for the class.
+        scopes.get(scopes.size() - 1).put("this", new Local(self, false));
+      }
+
+      beginScope();
+      for (int i = 0; i < function.parameters.size(); i++) {
+        String parameter = name("p_" + function.parameters.get(i).lexeme);
+        line("Object " + parameter + " = " + arguments + "[" + i + "];");
+        declareParameter(parameter, function.parameters.get(i));
+      }
+      statements(function.body);
+      endScope();
+
+      line("return null;");
+      indent--;
+      line("}");
+      indent--;
+      return "}";
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      beginBlock();
+      beginScope();
+      statements(stmt.statements);
+      endScope();
+      endBlock();
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      Local klass = declare(stmt.name, "null");
+
+      String superclass = null;
+      if (stmt.superclass != null) {
+        String value = expression(stmt.superclass);
+        superclass = name("superclass");
+        line("final LoxClass " + superclass + " = LoxRuntime.superclass(" +
+            value + ", " + stmt.name.line + ");");
+
+        beginScope();
+        scopes.get(scopes.size() - 1).put("super",
+            new Local(superclass, false));
+      }
+
+      String methods = name("methods");
+      line("Map<String, LoxMethod> " + methods + " = new HashMap<>();");
+      beginScope();
+      for (Stmt.Function method : stmt.methods) {
+        line(methods + ".put(" + string(method.name.lexeme) + ",");
+        indent += 2;
+        line(function(method, true, method.name.lexeme.equals("init")) +
+            ");");
+        indent -= 2;
+      }
+      endScope();
+
+      if (stmt.superclass != null) endScope();
+
+      assign(klass, stmt.name, "new LoxClass(" + string(stmt.name.lexeme) +
+          ", " + superclass + ", " + methods + ")");
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      expression(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      Local local = declare(stmt.name, "null");
+      String target = local == null ? "g_" + stmt.name.lexeme : local.read();
+      line(target + " =");
+      indent += 2;
+      line(function(stmt, false, false) + ";");
+      indent -= 2;
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      String condition = expression(stmt.condition);
+      line("if (LoxRuntime.isTruthy(" + condition + ")) {");
+      indent++;
+      stmt.thenBranch.accept(this);
+      indent--;
+      if (stmt.elseBranch != null) {
+        line("} else {");
+        indent++;
+        stmt.elseBranch.accept(this);
+        indent--;
+      }
+      line("}");
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      line("LoxRuntime.print(" + expression(stmt.expression) + ");");
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      returns(stmt.value == null ? "null" : expression(stmt.value));
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      String value =
+          stmt.initializer == null ? "null" : expression(stmt.initializer);
+      declare(stmt.name, value);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      line("while (true) {");
+      indent++;
+      String condition = expression(stmt.condition);
+      line("if (!LoxRuntime.isTruthy(" + condition + ")) break;");
+      stmt.body.accept(this);
+      indent--;
+      line("}");
+      return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+      // Rejected by Captures.
+      throw new AssertionError();
+    }
+
+    @Override
+    public String visitAssignExpr(Expr.Assign expr) {
+      String value = expression(expr.value);
+      Local local = resolve(expr, expr.name.lexeme);
+      if (local == null) {
+        line("LoxRuntime.checkDefined(g_" + expr.name.lexeme + ", " +
+            string(expr.name.lexeme) + ", " + expr.name.line + ");");
+      }
+      assign(local, expr.name, value);
+      return value;
+    }
+
+    @Override
+    public String visitBinaryExpr(Expr.Binary expr) {
+      String left = expression(expr.left);
+      String right = expression(expr.right);
+      String operands = left + ", " + right;
+      String line = ", " + expr.operator.line + ")";
+      switch (expr.operator.type) {
+        case BANG_EQUAL:
+          return temp("!LoxRuntime.isEqual(" + operands + ")");
+        case EQUAL_EQUAL:
+          return temp("LoxRuntime.isEqual(" + operands + ")");
+        case GREATER:
+          return temp("LoxRuntime.greater(" + operands + line);
+        case GREATER_EQUAL:
+          return temp("LoxRuntime.greaterEqual(" + operands + line);
+        case LESS:
+          return temp("LoxRuntime.less(" + operands + line);
+        case LESS_EQUAL:
+          return temp("LoxRuntime.lessEqual(" + operands + line);
+        case MINUS:
+          return temp("LoxRuntime.subtract(" + operands + line);
+        case PLUS:
+          return temp("LoxRuntime.add(" + operands + line);
+        case SLASH:
+          return temp("LoxRuntime.divide(" + operands + line);
+        case STAR:
+          return temp("LoxRuntime.multiply(" + operands + line);
+      }
+
+      // Unreachable.
+      throw new AssertionError(expr.operator.type);
+    }
+
+    @Override
+    public String visitCallExpr(Expr.Call expr) {
+      String callee = expression(expr.callee);
+      List<String> arguments = new ArrayList<>();
+      for (Expr argument : expr.arguments) {
+        arguments.add(expression(argument));
+      }
+
+      return temp("LoxRuntime.call(" + callee + ", new Object[] {" +
+          String.join(", ", arguments) + "}, " + expr.paren.line + ")");
+    }
+
+    @Override
+    public String visitGetExpr(Expr.Get expr) {
+      String object = expression(expr.object);
+      return temp("LoxRuntime.get(" + object + ", " +
+          string(expr.name.lexeme) + ", " + expr.name.line + ")");
+    }
+
+    @Override
+    public String visitGroupingExpr(Expr.Grouping expr) {
+      return expression(expr.expression);
+    }
+
+    @Override
+    public String visitLiteralExpr(Expr.Literal expr) {
+      Object value = expr.value;
+      if (value == null) return "null";
+      if (value instanceof String) return string((String)value);
+      if (value instanceof Double) return "(Object)" + value + "D";
+      return "(Object)" + value;
+    }
+
+    @Override
+    public String visitLogicalExpr(Expr.Logical expr) {
+      String result = temp(expression(expr.left));
+      if (expr.operator.type == TokenType.OR) {
+        line("if (!LoxRuntime.isTruthy(" + result + ")) {");
+      } else {
+        line("if (LoxRuntime.isTruthy(" + result + ")) {");
+      }
+      indent++;
+      line(result + " = " + expression(expr.right) + ";");
+      indent--;
+      line("}");
+      return result;
+    }
+
+    @Override
+    public String visitSetExpr(Expr.Set expr) {
+      String value = expression(expr.value);
+      String object = expression(expr.object);
+      return temp("LoxRuntime.set(" + object + ", " +
+          string(expr.name.lexeme) + ", " + value + ", " +
+          expr.name.line + ")");
+    }
+
+    @Override
+    public String visitSuperExpr(Expr.Super expr) {
+      int distance = locals.get(expr);
+      Local superclass = scopes.get(scopes.size() - 1 - distance).get("super");
+
+      // "this" is always one level nearer than "super"'s scope.
+      Local self = scopes.get(scopes.size() - distance).get("this");
+      return temp("LoxRuntime.superMethod(" + superclass.name + ", " +
+          self.name + ", " + string(expr.method.lexeme) + ", " +
+          expr.method.line + ")");
+    }
+
+    @Override
+    public String visitThisExpr(Expr.This expr) {
+      return temp(resolve(expr, "this").name);
+    }
+
+    @Override
+    public String visitUnaryExpr(Expr.Unary expr) {
+      String right = expression(expr.right);
+      if (expr.operator.type == TokenType.BANG) {
+        return temp("!LoxRuntime.isTruthy(" + right + ")");
+      }
+      return temp("LoxRuntime.negate(" + right + ", " +
+          expr.operator.line + ")");
+    }
+
+    @Override
+    public String visitVariableExpr(Expr.Variable expr) {
+      Local local = resolve(expr, expr.name.lexeme);
+      if (local == null) {
+        return temp("LoxRuntime.global(g_" + expr.name.lexeme + ", " +
+            string(expr.name.lexeme) + ", " + expr.name.line + ")");
+      }
+      return temp(local.read());
+    }
+  }
+
+  // A Java string literal, only ASCII so the source does not depend on the
+  // platform encoding.
+  private static String string(String value) {
+    StringBuilder builder = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"': builder.append("\\\""); break;
+        case '\\': builder.append("\\\\"); break;
+        case '\n': builder.append("\\n"); break;
+        case '\r': builder.append("\\r"); break;
+        case '\t': builder.append("\\t"); break;
+        default:
+          if (c < 0x20 || c > 0x7e) {
+            builder.append(String.format("\\u%04x", (int)c));
+          } else {
+            builder.append(c);
+          }
+      }
+    }
+    return builder.append('"').toString();
+  }
+}
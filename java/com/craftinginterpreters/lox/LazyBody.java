@@ -0,0 +1,77 @@
+package com.craftinginterpreters.lox;
+
+import java.util.AbstractList;
+import java.util.List;
+
+// The body of a function skimmed by a lazy Parser, which only matched its
+// braces. It is parsed and resolved in the scopes the Binder saw at the
+// function declaration, the first time it is used, usually when the function
+// is first called, so the functions a script never calls cost almost
+// nothing.
+final class LazyBody extends AbstractList<Stmt> {
+  private final TokenSource tokens;
+  private final int start;
+  private final Token name;
+
+  // Set by the Resolver, or the Parser, when it reaches the declaration.
+  private Binder binder;
+  private boolean onePass;
+
+  private volatile List<Stmt> statements;
+
+  LazyBody(TokenSource tokens, int start, Token name) {
+    this.tokens = tokens;
+    this.start = start;
+    this.name = name;
+  }
+
+  boolean isParsed() {
+    return statements != null;
+  }
+
+  // If [onePass], the body is resolved while it is parsed.
+  void resolveLater(Binder binder, boolean onePass) {
+    this.binder = binder;
+    this.onePass = onePass;
+  }
+
+  private List<Stmt> statements() {
+    List<Stmt> statements = this.statements;
+    if (statements == null) statements = parse();
+    return statements;
+  }
+
+  // Synchronized as the compiler thread can walk a body too.
+  private synchronized List<Stmt> parse() {
+    if (statements != null) return statements;
+
+    Parser parser = onePass
+        ? new Parser(tokens, true, binder)
+        : new Parser(tokens, true);
+    List<Stmt> body = parser.parseBody(start);
+    if (body != null && !parser.hadError() && !onePass) {
+      new Resolver(binder).resolve(body);
+    }
+    // Only the errors of this body count, the script may have reported
+    // runtime errors in the same log.
+    if (body == null || parser.hadError() || binder.hadError()) {
+      // The errors have been reported, Lox exits with a compile error.
+      throw new RuntimeError(name,
+          "Function '" + name.lexeme + "' has errors.");
+    }
+
+    binder = null;
+    statements = body;
+    return body;
+  }
+
+  @Override
+  public Stmt get(int index) {
+    return statements().get(index);
+  }
+
+  @Override
+  public int size() {
+    return statements().size();
+  }
+}
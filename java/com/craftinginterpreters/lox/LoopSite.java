@@ -0,0 +1,18 @@
+package com.craftinginterpreters.lox;
+
+// The execution state of a while loop: how many times its body has run and,
+// once it is hot enough, the loop compiled by the ClosureCompiler, which the
+// Interpreter jumps into in the middle of the loop.
+final class LoopSite {
+  final Stmt.While loop;
+
+  // Saturates at the compile threshold.
+  int backEdges;
+  boolean requested;
+
+  volatile ClosureCompiler.StmtNode compiled;
+
+  LoopSite(Stmt.While loop) {
+    this.loop = loop;
+  }
+}
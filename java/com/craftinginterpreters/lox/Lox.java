@@ -4,12 +4,24 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
 import java.util.List;
 //> Resolving and Binding not-yet
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 //< Resolving and Binding not-yet
 
 public class Lox {
@@ -23,19 +35,78 @@ public class Lox {
   static boolean hadRuntimeError = false;
 
 //< Evaluating Expressions had-runtime-error-field
+  // Scripts larger than this are parsed as they are read instead of being
+  // loaded in memory first. They are neither profiled nor cached.
+  private static final long STREAM_SIZE =
+      Long.getLong("lox.streamSize", 16 << 20);
+
+  // If function bodies are parsed on their first call, see LazyBody. Not
+  // with the AST cache, which needs the whole tree. The profile is off then,
+  // as numbering its sites would parse every body.
+  private static final boolean LAZY = Boolean.getBoolean("lox.lazy");
+
+  // If the Parser resolves the variables as it parses, see Binder, instead
+  // of the Resolver walking the tree afterwards.
+  private static final boolean ONE_PASS = Boolean.getBoolean("lox.onePass");
+
+  // If the tree is packed before it runs, see CompactAst. Not with lazy
+  // parsing, which needs the tokens anyway.
+  private static final boolean COMPACT = Boolean.getBoolean("lox.compact");
+
+  // If the script runs again each time it is saved, see Session.
+  private static final boolean WATCH = Boolean.getBoolean("lox.watch");
+
+  // How many bytes print buffers before writing them, or 0 to write each
+  // line at once, as when stdout is a terminal. See Printer.
+  private static final int PRINT_BUFFER = Integer.getInteger("lox.printBuffer",
+      System.console() != null ? 0 : Printer.BUFFER_SIZE);
+
+  // If the buffers of print are written by a thread of their own.
+  private static final boolean PRINT_THREAD =
+      Boolean.getBoolean("lox.printThread");
+
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
-    } else if (args.length == 1) {
-      runFile(args[0]);
-    } else {
-      runPrompt();
+    interpreter.out = new Printer(System.out, Charset.defaultCharset(),
+        PRINT_BUFFER, PRINT_THREAD);
+    try {
+      if (args.length > 1) {
+        runFiles(args);
+      } else if (args.length == 1) {
+        runFile(args[0]);
+      } else {
+        runPrompt();
+      }
+    } finally {
+      interpreter.out.flush();
     }
   }
 //> run-file
   private static void runFile(String path) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
+    if (WATCH) {
+      watchFile(Paths.get(path));
+      return;
+    }
+
+    try (FileChannel channel = FileChannel.open(Paths.get(path))) {
+      if (channel.size() > STREAM_SIZE) {
+        run(new StreamScanner(channel, Charset.defaultCharset()), false,
+            new HashMap<>(), null);
+      } else {
+        // Scanned in place, see Utf8Source.
+        ByteBuffer bytes = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        AstCache cache = AstCache.open(bytes);
+        Profile profile = LAZY && cache == null ? null : Profile.open(bytes);
+        interpreter.profile = profile;
+        AstCache.Entry entry = cache == null ? null : cache.load();
+        if (entry != null) {
+          interpreter.interpret(entry.statements, entry.locals);
+        } else {
+          run(source(bytes), cache);
+        }
+        if (profile != null && !hadError) profile.save();
+      }
+    }
+    interpreter.out.flush();
 //> exit-code
 
     // Indicate an error in the exit code.
@@ -46,14 +117,85 @@ public class Lox {
 //< Evaluating Expressions check-runtime-error
   }
 //< run-file
+  // Runs several scripts as one program, see Bundle.
+  private static void runFiles(String[] paths) throws IOException {
+    List<Stmt> statements = Bundle.parse(paths, ForkJoinPool.commonPool());
+    if (!hadError) {
+      Map<Expr, Integer> locals = new Resolver().resolve(statements);
+      if (!hadError) interpreter.interpret(statements, locals);
+    }
+    interpreter.out.flush();
+
+    if (hadError) System.exit(65);
+    if (hadRuntimeError) System.exit(70);
+  }
+
+  private static CharSequence source(ByteBuffer bytes) {
+    Charset charset = Charset.defaultCharset();
+    if (charset.equals(StandardCharsets.UTF_8)) return new Utf8Source(bytes);
+    return charset.decode(bytes).toString();
+  }
+
+  // Compiles the script at [path] to an executable jar, for loxc.
+  public static void compileFile(String path, String jar) throws IOException {
+    byte[] bytes = Files.readAllBytes(Paths.get(path));
+    ArrayScanner scanner =
+        new ArrayScanner(new String(bytes, Charset.defaultCharset()));
+    List<Token> tokens = scanner.scanTokens();
+    Parser parser = new Parser(tokens);
+    List<Stmt> statements = parser.parse();
+    if (hadError) System.exit(65);
+
+    Map<Expr, Integer> locals = new Resolver().resolve(statements);
+    if (hadError) System.exit(65);
+
+    new JarCompiler(locals).compile(statements, Paths.get(jar));
+    if (hadError) System.exit(65);
+  }
+  // Runs the script, then the top-level statements that changed each time
+  // it is saved, until jlox is stopped.
+  private static void watchFile(Path path) throws IOException {
+    Session session = new Session(interpreter);
+    Path file = path.toAbsolutePath();
+    try (WatchService watcher = file.getFileSystem().newWatchService()) {
+      // Editors often save by replacing the file.
+      file.getParent().register(watcher,
+          StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY);
+
+      for (;;) {
+        hadError = false;
+        session.update(
+            new String(Files.readAllBytes(file), Charset.defaultCharset()));
+        interpreter.out.flush();
+
+        boolean changed = false;
+        while (!changed) {
+          WatchKey key = watcher.take();
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (file.getFileName().equals(event.context())) changed = true;
+          }
+          key.reset();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
 //> prompt
   private static void runPrompt() throws IOException {
     InputStreamReader input = new InputStreamReader(System.in);
     BufferedReader reader = new BufferedReader(input);
 
+    // The lines share their resolved variables.
+    Session session = new Session(interpreter);
     for (;;) { // [repl]
       System.out.print("> ");
-      run(reader.readLine());
+      String line = reader.readLine();
+      if (line == null) break;
+
+      session.run(line);
+      interpreter.out.flush();
 //> reset-had-error
       hadError = false;
 //< reset-had-error
@@ -61,8 +203,8 @@ public class Lox {
   }
 //< prompt
 //> run
-  private static void run(String source) {
-    Scanner scanner = new Scanner(source);
+  private static void run(CharSequence source, AstCache cache) {
+    ArrayScanner scanner = new ArrayScanner(source);
     List<Token> tokens = scanner.scanTokens();
 /* Scanning run < Parsing Expressions print-ast
 
@@ -72,24 +214,43 @@ public class Lox {
     }
 */
 //> Parsing Expressions print-ast
-    Parser parser = new Parser(tokens);
+    if (LAZY && cache == null) {
+      // Lazy bodies are resolved as the script runs, possibly while a
+      // compiler thread reads the locals.
+      run(TokenSource.of(tokens), true, new ConcurrentHashMap<>(), null);
+    } else {
+      run(TokenSource.of(tokens), false, new HashMap<>(), cache);
+    }
+  }
+
+  private static void run(TokenSource tokens, boolean lazy,
+                          Map<Expr, Integer> locals, AstCache cache) {
 /* Parsing Expressions print-ast < Statements and State parse-statements
     Expr expression = parser.parse();
 */
 //> Statements and State parse-statements
-    List<Stmt> statements = parser.parse();
+    Binder binder = ONE_PASS ? new Binder(locals, true) : null;
+    List<Stmt> statements = new Parser(tokens, lazy, binder).parse();
 //< Statements and State parse-statements
 
-    // Stop if there was a syntax error.
+    // Stop if there was a syntax error, or a resolution error found while
+    // parsing.
     if (hadError) return;
 
 //< Parsing Expressions print-ast
 //> Resolving and Binding not-yet
-    Resolver resolver = new Resolver();
-    Map<Expr, Integer> locals = resolver.resolve(statements);
+    if (!ONE_PASS) {
+      new Resolver(locals).resolve(statements);
 
-    // Stop if there was a resolution error.
-    if (hadError) return;
+      // Stop if there was a resolution error.
+      if (hadError) return;
+    }
+    if (cache != null) cache.save(statements, locals);
+    if (COMPACT && !lazy) {
+      CompactAst ast = CompactAst.encode(statements, locals);
+      locals = new ConcurrentHashMap<>();
+      statements = ast.statements(locals);
+    }
 
 /* Parsing Expressions print-ast < Evaluating Expressions interpreter-interpret
     System.out.println(new AstPrinter().print(expression));
@@ -109,7 +270,29 @@ public class Lox {
     report(line, "", message);
   }
 
+  // Where the errors go instead of stderr while a script is parsed on
+  // another thread, see Bundle, or run for a client, see Daemon. The tasks
+  // spawned by a script share its log, see Concurrency.
+  static final ThreadLocal<List<String>> errorLog = new ThreadLocal<>();
+
+  // Whether an error has been reported where this thread reports them.
+  static boolean hadError() {
+    List<String> log = errorLog.get();
+    if (log == null) return hadError;
+    synchronized (log) {
+      return !log.isEmpty();
+    }
+  }
+
   static private void report(int line, String where, String message) {
+    List<String> log = errorLog.get();
+    if (log != null) {
+      synchronized (log) {
+        log.add("[line " + line + "] Error" + where + ": " + message);
+      }
+      return;
+    }
+
     System.err.println(
         "[line " + line + "] Error" + where + ": " + message);
     hadError = true;
@@ -126,9 +309,23 @@ public class Lox {
 //< Parsing Expressions token-error
 //> Evaluating Expressions runtime-error-method
   static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() +
-        "\n[line " + error.token.line + "]");
+    List<String> log = errorLog.get();
+    if (log != null) {
+      synchronized (log) {
+        log.add(error.getMessage() + where(error));
+      }
+      return;
+    }
+
+    System.err.println(error.getMessage() + where(error));
     hadRuntimeError = true;
   }
 //< Evaluating Expressions runtime-error-method
+
+  // A promise rejected at the end of the script, with nobody to ask for it,
+  // has no line, see EventLoop.run.
+  private static String where(RuntimeError error) {
+    if (error.token == null) return "";
+    return "\n[line " + error.token.line + "]";
+  }
 }
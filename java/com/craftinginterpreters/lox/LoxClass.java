@@ -35,18 +35,25 @@ class LoxClass implements Callable {
     return null;
 */
 //> Inheritance not-yet
+    LoxFunction method = method(name);
+    if (method != null) return method.bind(instance);
+
+    // Not found.
+    return null;
+//< Inheritance not-yet
+  }
+
+  // Returns the method [name] of this class or of a superclass, unbound.
+  LoxFunction method(String name) {
     LoxClass klass = this;
     while (klass != null) {
       if (klass.methods.containsKey(name)) {
-        return klass.methods.get(name).bind(instance);
+        return klass.methods.get(name);
       }
 
       klass = klass.superclass;
     }
-
-    // Not found.
     return null;
-//< Inheritance not-yet
   }
 
   @Override
@@ -63,7 +70,8 @@ class LoxClass implements Callable {
 
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
-    LoxInstance instance = new LoxInstance(this);
+    LoxInstance instance =
+        new LoxInstance(this, interpreter.globals.sharing);
 
     LoxFunction initializer = methods.get("init");
     if (initializer != null) {
@@ -2,13 +2,15 @@
 package com.craftinginterpreters.lox;
 
 import java.util.List;
+import java.util.Set;
 
 class LoxFunction implements Callable {
-  private final Stmt.Function declaration;
-  private final Environment closure;
+  final Stmt.Function declaration;
+  final Environment closure;
 //> Classes not-yet
-  private final boolean isInitializer;
+  final boolean isInitializer;
 //< Classes not-yet
+  private final FunctionSite site;
 
 /* Functions not-yet < Classes not-yet
 LoxFunction(Stmt.Function declaration, Environment closure) {
@@ -22,13 +24,22 @@ LoxFunction(Stmt.Function declaration, Environment closure) {
 //> Classes not-yet
     this.isInitializer = isInitializer;
 //< Classes not-yet
+    this.site = new FunctionSite(declaration);
+  }
+
+  LoxFunction(Stmt.Function declaration, Environment closure,
+              boolean isInitializer, FunctionSite site) {
+    this.declaration = declaration;
+    this.closure = closure;
+    this.isInitializer = isInitializer;
+    this.site = site;
   }
 
 //> Classes not-yet
   LoxFunction bind(LoxInstance self) {
     Environment environment = new Environment(closure);
     environment.define("this", self);
-    return new LoxFunction(declaration, environment, isInitializer);
+    return new LoxFunction(declaration, environment, isInitializer, site);
   }
 
 //< Classes not-yet
@@ -42,20 +53,50 @@ LoxFunction(Stmt.Function declaration, Environment closure) {
     return declaration.parameters.size();
   }
 
+  // Counts a call the ClosureCompiler inlined, like call() counts the
+  // others, for the step limit and the profile.
+  void inlined(Interpreter interpreter) {
+    if (interpreter.budget != null) interpreter.budget.step();
+    site.invocations++;
+  }
+
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
-    Object result = null;
+    if (interpreter.budget != null) interpreter.budget.step();
 
-    try {
+    Set<Stmt> yields = site.yields();
+    if (!yields.isEmpty()) {
       Environment environment = new Environment(closure);
       for (int i = 0; i < declaration.parameters.size(); i++) {
         environment.define(declaration.parameters.get(i).lexeme,
             arguments.get(i));
       }
+      return new LoxGenerator(declaration, yields, environment);
+    }
 
-      interpreter.executeBlock(declaration.body, environment);
-    } catch (Return returnValue) {
-      result = returnValue.value;
+    Object result = null;
+    // While a trace is recorded, calls are followed in the Interpreter.
+    ClosureCompiler.FunctionNode compiled =
+        interpreter.trace == null ? site.compiled : null;
+    if (++site.invocations >= Tiers.THRESHOLD && compiled == null &&
+        !site.requested) {
+      Tiers.compile(site, interpreter.locals, interpreter.profile);
+    }
+
+    if (compiled != null) {
+      result = compiled.invoke(interpreter, closure, arguments);
+    } else {
+      try {
+        Environment environment = new Environment(closure);
+        for (int i = 0; i < declaration.parameters.size(); i++) {
+          environment.define(declaration.parameters.get(i).lexeme,
+              arguments.get(i));
+        }
+
+        interpreter.executeBlock(declaration.body, environment);
+      } catch (Return returnValue) {
+        result = returnValue.value;
+      }
     }
 
 /* Functions not-yet < Classes not-yet
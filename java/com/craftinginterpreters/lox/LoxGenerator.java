@@ -0,0 +1,230 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+// A function whose body has a yield statement is a generator: calling it
+// returns a LoxGenerator, which runs the body up to a yield each time the
+// next value is asked for, so a script can stream values without building
+// a list of them:
+//
+//   fun numbers(n) {
+//     for (var i = 0; i < n; i = i + 1) yield i;
+//   }
+//
+//   var g = numbers(3);
+//   while (!done(g)) print next(g);
+//
+// A yield suspends the generator it is written in, not a function it calls,
+// so the state to keep is the statements of the body that contain a yield
+// and that are running: the blocks and the loops, with their environments.
+// They are kept on a stack of frames in the heap, reused from one value to
+// the next, instead of on the Java stack where executeBlock keeps them. The
+// statements without a yield run in the Interpreter as usual, their loops
+// and the functions they call can be compiled.
+//
+// A generator ends when its body does, or returns. It can be used by one
+// thread at a time.
+final class LoxGenerator {
+  // The statements of the body that contain a yield.
+  private final Set<Stmt> yields;
+
+  // The blocks and the loops being run, innermost on top. A frame is a
+  // block when [loop] is null.
+  private Frame[] frames = new Frame[4];
+  private int top = -1;
+
+  // The value yielded and not returned by next() yet.
+  private Object value;
+  private boolean hasValue = false;
+
+  private boolean running = false;
+
+  LoxGenerator(Stmt.Function declaration, Set<Stmt> yields,
+               Environment environment) {
+    this.yields = yields;
+    push(declaration.body, null, environment);
+  }
+
+  private static final class Frame {
+    List<Stmt> statements;
+    int index;
+    Stmt.While loop;
+    Environment environment;
+  }
+
+  static void defineNatives(Environment globals) {
+    globals.define("next", new Native(1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return generator(arguments.get(0)).next(interpreter);
+      }
+    });
+
+    globals.define("done", new Native(1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return !generator(arguments.get(0)).advance(interpreter);
+      }
+    });
+  }
+
+  // Returns the next value, or nil if the generator has ended.
+  Object next(Interpreter interpreter) {
+    if (!advance(interpreter)) return null;
+
+    Object next = value;
+    value = null;
+    hasValue = false;
+    return next;
+  }
+
+  // Runs the body up to the next yield, if the value it yields has not
+  // been returned yet. Returns false if the generator has ended.
+  private boolean advance(Interpreter interpreter) {
+    if (hasValue) return true;
+    if (top == -1) return false;
+    if (running) {
+      throw new RuntimeError(null, "Generator is already running.");
+    }
+
+    running = true;
+    try {
+      hasValue = resume(interpreter);
+    } catch (Return returnValue) {
+      hasValue = false;
+    } finally {
+      running = false;
+      // A runtime error ends the generator too.
+      if (!hasValue) clear();
+    }
+    return hasValue;
+  }
+
+  private boolean resume(Interpreter interpreter) {
+    while (top != -1) {
+      Frame frame = frames[top];
+      Environment environment = frame.environment;
+
+      Stmt stmt;
+      if (frame.loop != null) {
+        Object condition =
+            interpreter.evaluate(frame.loop.condition, environment);
+        if (!interpreter.isTruthy(condition)) {
+          pop();
+          continue;
+        }
+        if (interpreter.budget != null) interpreter.budget.step(frame.loop);
+        stmt = frame.loop.body;
+      } else {
+        if (frame.index == frame.statements.size()) {
+          pop();
+          continue;
+        }
+        stmt = frame.statements.get(frame.index++);
+      }
+
+      // An if only chooses the statement to run next.
+      while (stmt instanceof Stmt.If && yields.contains(stmt)) {
+        Stmt.If ifStmt = (Stmt.If)stmt;
+        Object condition = interpreter.evaluate(ifStmt.condition, environment);
+        stmt = interpreter.isTruthy(condition)
+            ? ifStmt.thenBranch : ifStmt.elseBranch;
+      }
+      if (stmt == null) continue;
+
+      if (!yields.contains(stmt)) {
+        interpreter.execute(stmt, environment);
+      } else if (stmt instanceof Stmt.Yield) {
+        Expr yielded = ((Stmt.Yield)stmt).value;
+        value = yielded == null
+            ? null : interpreter.evaluate(yielded, environment);
+        return true;
+      } else if (stmt instanceof Stmt.Block) {
+        push(((Stmt.Block)stmt).statements, null,
+            new Environment(environment));
+      } else {
+        push(null, (Stmt.While)stmt, environment);
+      }
+    }
+    return false;
+  }
+
+  private void push(List<Stmt> statements, Stmt.While loop,
+                    Environment environment) {
+    if (++top == frames.length) frames = Arrays.copyOf(frames, top * 2);
+    Frame frame = frames[top];
+    if (frame == null) {
+      frame = new Frame();
+      frames[top] = frame;
+    }
+    frame.statements = statements;
+    frame.index = 0;
+    frame.loop = loop;
+    frame.environment = environment;
+  }
+
+  private void pop() {
+    Frame frame = frames[top--];
+    frame.statements = null;
+    frame.loop = null;
+    frame.environment = null;
+  }
+
+  // Lets the environments of an ended generator be collected.
+  private void clear() {
+    while (top != -1) pop();
+  }
+
+  @Override
+  public String toString() {
+    return "<generator>";
+  }
+
+  // The statements of the body of [function] that contain a yield, not in a
+  // nested function, whose yields are its own.
+  static Set<Stmt> yields(Stmt.Function function) {
+    Set<Stmt> yields = Collections.newSetFromMap(new IdentityHashMap<>());
+    if (!collect(function.body, yields)) return Collections.emptySet();
+    return Collections.unmodifiableSet(yields);
+  }
+
+  private static boolean collect(List<Stmt> statements, Set<Stmt> yields) {
+    boolean yielding = false;
+    for (Stmt statement : statements) {
+      if (collect(statement, yields)) yielding = true;
+    }
+    return yielding;
+  }
+
+  private static boolean collect(Stmt stmt, Set<Stmt> yields) {
+    boolean yielding;
+    if (stmt instanceof Stmt.Yield) {
+      yielding = true;
+    } else if (stmt instanceof Stmt.Block) {
+      yielding = collect(((Stmt.Block)stmt).statements, yields);
+    } else if (stmt instanceof Stmt.If) {
+      Stmt.If ifStmt = (Stmt.If)stmt;
+      yielding = collect(ifStmt.thenBranch, yields);
+      if (ifStmt.elseBranch != null &&
+          collect(ifStmt.elseBranch, yields)) {
+        yielding = true;
+      }
+    } else if (stmt instanceof Stmt.While) {
+      yielding = collect(((Stmt.While)stmt).body, yields);
+    } else {
+      return false;
+    }
+
+    if (yielding) yields.add(stmt);
+    return yielding;
+  }
+
+  private static LoxGenerator generator(Object value) {
+    if (value instanceof LoxGenerator) return (LoxGenerator)value;
+    throw new RuntimeError(null, "Operand must be a generator.");
+  }
+}
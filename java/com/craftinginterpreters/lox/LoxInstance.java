@@ -6,13 +6,37 @@ import java.util.Map;
 
 class LoxInstance {
   private LoxClass klass;
-  final Map<String, Object> fields = new HashMap<>();
+  private Map<String, Object> fields = new HashMap<>();
+  private final Concurrency.Sharing sharing;
 
-  LoxInstance(LoxClass klass) {
+  // [sharing] is the flag of the script that creates the instance, see
+  // Concurrency.Sharing.
+  LoxInstance(LoxClass klass, Concurrency.Sharing sharing) {
     this.klass = klass;
+    this.sharing = sharing;
+  }
+
+  LoxClass klass() {
+    return klass;
+  }
+
+  // Moved to a SharedMap once the script runs on several threads, like the
+  // variables of an Environment.
+  Map<String, Object> fields() {
+    Map<String, Object> fields = this.fields;
+    if (sharing.enabled && !(fields instanceof SharedMap)) {
+      fields = share();
+    }
+    return fields;
+  }
+
+  private synchronized Map<String, Object> share() {
+    if (!(fields instanceof SharedMap)) fields = new SharedMap(fields);
+    return fields;
   }
 
   Object getProperty(Token name) {
+    Map<String, Object> fields = fields();
     if (fields.containsKey(name.lexeme)) {
       return fields.get(name.lexeme);
     }
@@ -0,0 +1,268 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+// Lox behind javax.script. A script is scanned, parsed and resolved once by
+// compile() and its CompiledScript can then be evaluated any number of
+// times, with different bindings, on as many threads.
+//
+// Each evaluation runs in a new Interpreter whose globals are the engine
+// scope bindings themselves: a value put by the host is a global of the
+// script, and the variables the script defines or assigns are put in the
+// bindings as it runs. The global scope bindings, then the native
+// functions, enclose them. As Lox only has doubles, the other numbers of
+// the host are converted when the script reads them, the bindings keep
+// them as they are.
+//
+// The script prints to the writer of the ScriptContext. It returns the
+// value of its last statement if it is an expression statement, nil
+// otherwise. A runtime error of the script is thrown as a ScriptException,
+// those of the tasks it spawned are written to the error writer.
+public final class LoxScriptEngine extends AbstractScriptEngine
+    implements Compilable {
+  private final ScriptEngineFactory factory;
+
+  LoxScriptEngine(ScriptEngineFactory factory) {
+    this.factory = factory;
+  }
+
+  public LoxScriptEngine() {
+    this(new LoxScriptEngineFactory());
+  }
+
+  @Override
+  public CompiledScript compile(String source) throws ScriptException {
+    List<String> errors = new ArrayList<>();
+    List<String> enclosing = Lox.errorLog.get();
+    Lox.errorLog.set(errors);
+    try {
+      List<Token> tokens = new ArrayScanner(source).scanTokens();
+      List<Stmt> statements = new Parser(tokens).parse();
+      if (errors.isEmpty()) {
+        Map<Expr, Integer> locals = new Resolver().resolve(statements);
+        if (errors.isEmpty()) {
+          return new Script(new Program(statements, locals));
+        }
+      }
+    } finally {
+      restore(enclosing);
+    }
+
+    throw new ScriptException(String.join("\n", errors),
+        fileName(context), -1);
+  }
+
+  @Override
+  public CompiledScript compile(Reader reader) throws ScriptException {
+    return compile(read(reader));
+  }
+
+  @Override
+  public Object eval(String source, ScriptContext context)
+      throws ScriptException {
+    return compile(source).eval(context);
+  }
+
+  @Override
+  public Object eval(Reader reader, ScriptContext context)
+      throws ScriptException {
+    return eval(read(reader), context);
+  }
+
+  @Override
+  public Bindings createBindings() {
+    return new SimpleBindings();
+  }
+
+  @Override
+  public ScriptEngineFactory getFactory() {
+    return factory;
+  }
+
+  // Builds the tree of its Program once, shared by the evaluations: the
+  // bodies of the functions are built as they are first called, on any of
+  // their threads.
+  private final class Script extends CompiledScript {
+    private final Map<Expr, Integer> locals = new ConcurrentHashMap<>();
+    private final List<Stmt> statements;
+
+    Script(Program program) {
+      statements = program.statements(locals);
+    }
+
+    @Override
+    public Object eval(ScriptContext context) throws ScriptException {
+      Environment globals = new Environment();
+      Interpreter.defineNatives(globals);
+
+      Bindings global = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+      if (global != null) {
+        globals = new Environment(new BindingsMap(global), globals);
+      }
+      Bindings engine = context.getBindings(ScriptContext.ENGINE_SCOPE);
+      globals = new Environment(new BindingsMap(engine), globals);
+
+      Interpreter interpreter = new Interpreter(globals);
+      WriterStream output = new WriterStream(context.getWriter());
+      interpreter.out = new Printer(output, StandardCharsets.UTF_8, 0, false);
+
+      // Shared by the tasks the script spawns, see Concurrency.
+      List<String> enclosing = Lox.errorLog.get();
+      Lox.errorLog.set(new ErrorLog(interpreter.out,
+          context.getErrorWriter()));
+      try {
+        return interpreter.run(statements, locals);
+      } catch (RuntimeError error) {
+        throw new ScriptException(error.getMessage(), fileName(context),
+            error.token == null ? -1 : error.token.line);
+      } finally {
+        restore(enclosing);
+        interpreter.out.flush();
+        output.close();
+      }
+    }
+
+    @Override
+    public ScriptEngine getEngine() {
+      return LoxScriptEngine.this;
+    }
+  }
+
+  // The bindings of the host as the variables of an Environment, not a
+  // copy, with the numbers of the host read as doubles. Synchronized, as
+  // the tasks spawned by the script may use them.
+  private static final class BindingsMap extends AbstractMap<String, Object> {
+    private final Bindings bindings;
+
+    BindingsMap(Bindings bindings) {
+      this.bindings = bindings;
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+      return bindings.containsKey(key);
+    }
+
+    @Override
+    public synchronized Object get(Object key) {
+      Object value = bindings.get(key);
+      if (value instanceof Number && !(value instanceof Double)) {
+        return ((Number)value).doubleValue();
+      }
+      return value;
+    }
+
+    @Override
+    public synchronized Object put(String key, Object value) {
+      return bindings.put(key, value);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+      return bindings.entrySet();
+    }
+  }
+
+  // Writes the errors reported while a script runs to [writer], after what
+  // the script printed before. Lox adds to the log with its lock held.
+  private static final class ErrorLog extends ArrayList<String> {
+    private final Printer out;
+    private final Writer writer;
+
+    ErrorLog(Printer out, Writer writer) {
+      this.out = out;
+      this.writer = writer;
+    }
+
+    @Override
+    public boolean add(String error) {
+      out.flush();
+      try {
+        writer.write(error + System.lineSeparator());
+        writer.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return super.add(error);
+    }
+  }
+
+  private static void restore(List<String> enclosing) {
+    if (enclosing == null) {
+      Lox.errorLog.remove();
+    } else {
+      Lox.errorLog.set(enclosing);
+    }
+  }
+
+  private static String fileName(ScriptContext context) {
+    Object name = context.getAttribute(ScriptEngine.FILENAME);
+    return name == null ? null : name.toString();
+  }
+
+  private static String read(Reader reader) throws ScriptException {
+    StringBuilder source = new StringBuilder();
+    char[] buffer = new char[8192];
+    try {
+      int count;
+      while ((count = reader.read(buffer)) != -1) {
+        source.append(buffer, 0, count);
+      }
+    } catch (IOException e) {
+      throw new ScriptException(e);
+    }
+    return source.toString();
+  }
+
+  // Decodes what print writes into the writer of the ScriptContext. The
+  // Printer flushes after each print, so a flush never cuts a character in
+  // two.
+  private static final class WriterStream extends ByteArrayOutputStream {
+    private final Writer writer;
+
+    WriterStream(Writer writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    public void flush() {
+      if (count == 0) return;
+      try {
+        writer.write(toString(StandardCharsets.UTF_8));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      reset();
+    }
+
+    @Override
+    public void close() {
+      flush();
+      try {
+        writer.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+// Registers Lox with javax.script, see java/META-INF/services, so a host
+// finds it with:
+//
+//   new ScriptEngineManager().getEngineByName("lox")
+public final class LoxScriptEngineFactory implements ScriptEngineFactory {
+  @Override
+  public String getEngineName() {
+    return "jlox";
+  }
+
+  @Override
+  public String getEngineVersion() {
+    return "1.0";
+  }
+
+  @Override
+  public List<String> getExtensions() {
+    return List.of("lox");
+  }
+
+  @Override
+  public List<String> getMimeTypes() {
+    return List.of("application/x-lox");
+  }
+
+  @Override
+  public List<String> getNames() {
+    return List.of("lox", "Lox", "jlox");
+  }
+
+  @Override
+  public String getLanguageName() {
+    return "Lox";
+  }
+
+  @Override
+  public String getLanguageVersion() {
+    return "1.0";
+  }
+
+  @Override
+  public Object getParameter(String key) {
+    switch (key) {
+      case ScriptEngine.ENGINE: return getEngineName();
+      case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+      case ScriptEngine.LANGUAGE: return getLanguageName();
+      case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+      case ScriptEngine.NAME: return getNames().get(0);
+      default: return null;
+    }
+  }
+
+  @Override
+  public String getMethodCallSyntax(String object, String method,
+                                    String... args) {
+    return object + "." + method + "(" + String.join(", ", args) + ")";
+  }
+
+  @Override
+  public String getOutputStatement(String toDisplay) {
+    return "print " + toDisplay + ";";
+  }
+
+  @Override
+  public String getProgram(String... statements) {
+    StringBuilder program = new StringBuilder();
+    for (String statement : statements) {
+      program.append(statement).append(";\n");
+    }
+    return program.toString();
+  }
+
+  @Override
+  public ScriptEngine getScriptEngine() {
+    return new LoxScriptEngine(this);
+  }
+}
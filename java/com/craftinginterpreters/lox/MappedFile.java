@@ -0,0 +1,196 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+// The native functions that scan a file without reading it whole:
+//
+//   lines(path, fn)        Calls fn(line) for each line, without its end.
+//   chunks(path, size, fn) Calls fn(text) for each [size] characters, the
+//                          last chunk can be shorter. A character outside
+//                          the BMP is two, a size of 1 cannot hold it.
+//
+// Both stop early if fn returns false, and return the number of calls.
+//
+// The file is memory-mapped a window at a time, so it can be larger than the
+// memory, or than the 2GB of a single mapping. Only the line or the chunk
+// given to fn is decoded, into a String, with the default charset like the
+// scripts. The bytes of a line are copied to the same array each time, and
+// the characters of a chunk to the same buffer, and the arguments of fn are
+// the same list: scanning allocates the Strings and nothing else.
+//
+// Lines end with "\n" or "\r\n", so the charset must encode them like ASCII
+// does, as UTF-8 and the ISO-8859 charsets do.
+final class MappedFile {
+  private MappedFile() {}
+
+  // How much of the file is mapped at a time. A line cannot be longer.
+  private static final int WINDOW = 1 << 26;
+
+  static void defineNatives(Environment globals) {
+    globals.define("lines", new Native(2) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        String path = path(arguments.get(0));
+        Callable function = function(arguments.get(1));
+        try (FileChannel channel = open(path)) {
+          return (double)lines(interpreter, channel, function);
+        } catch (IOException e) {
+          throw new RuntimeError(null, "Cannot read " + path + ".");
+        }
+      }
+    });
+
+    globals.define("chunks", new Native(3) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        String path = path(arguments.get(0));
+        Object size = arguments.get(1);
+        if (!(size instanceof Double) || (double)size < 1 ||
+            (double)size > Integer.MAX_VALUE ||
+            (double)size != Math.floor((double)size)) {
+          throw new RuntimeError(null, "Size must be a positive integer.");
+        }
+        Callable function = function(arguments.get(2));
+        try (FileChannel channel = open(path)) {
+          return (double)chunks(interpreter, channel, (int)(double)size,
+              function);
+        } catch (IOException e) {
+          throw new RuntimeError(null, "Cannot read " + path + ".");
+        }
+      }
+    });
+  }
+
+  private static long lines(Interpreter interpreter, FileChannel channel,
+                            Callable function) throws IOException {
+    Charset charset = Charset.defaultCharset();
+    Object[] argument = new Object[1];
+    List<Object> arguments = Arrays.asList(argument);
+    byte[] bytes = new byte[256];
+    long count = 0;
+
+    long size = channel.size();
+    long position = 0;
+    while (position < size) {
+      int length = (int)Math.min(WINDOW, size - position);
+      boolean last = position + length == size;
+      MappedByteBuffer window =
+          channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+      int start = 0;
+      for (int i = 0; i <= length; i++) {
+        // The last line of the file may have no end.
+        if (i == length ? !last || start == length : window.get(i) != '\n') {
+          continue;
+        }
+
+        int end = i;
+        if (end > start && window.get(end - 1) == '\r') end--;
+        if (bytes.length < end - start) {
+          bytes = new byte[Math.max(end - start, bytes.length * 2)];
+        }
+        window.get(start, bytes, 0, end - start);
+        argument[0] = new String(bytes, 0, end - start, charset);
+        count++;
+        if (function.call(interpreter, arguments) == Boolean.FALSE) {
+          return count;
+        }
+        start = i + 1;
+      }
+
+      if (!last && start == 0) {
+        throw new RuntimeError(null, "Line too long.");
+      }
+      // The next window starts with the line this one cuts.
+      position += last ? length : start;
+    }
+    return count;
+  }
+
+  private static long chunks(Interpreter interpreter, FileChannel channel,
+                             int size, Callable function)
+      throws IOException {
+    CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    CharBuffer chunk = CharBuffer.allocate(size);
+    Object[] argument = new Object[1];
+    List<Object> arguments = Arrays.asList(argument);
+    long count = 0;
+
+    long fileSize = channel.size();
+    if (fileSize == 0) return 0;
+    long position = 0;
+    boolean last = false;
+    while (!last) {
+      int length = (int)Math.min(WINDOW, fileSize - position);
+      last = position + length == fileSize;
+      MappedByteBuffer window =
+          channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+      // Stops at the end of the window, or before the bytes of a character
+      // the window cuts, which the next window starts with.
+      while (decoder.decode(window, chunk, last).isOverflow()) {
+        // The next character is a surrogate pair and the size is 1.
+        if (chunk.position() == 0) {
+          throw new RuntimeError(null, "Size too small for a character.");
+        }
+        count++;
+        if (!call(interpreter, function, chunk, argument, arguments)) {
+          return count;
+        }
+      }
+      position += window.position();
+    }
+
+    CoderResult result;
+    do {
+      result = decoder.flush(chunk);
+      if (chunk.position() == 0) break;
+      count++;
+      if (!call(interpreter, function, chunk, argument, arguments)) break;
+    } while (result.isOverflow());
+    return count;
+  }
+
+  // Passes the characters in [chunk] to [function] and empties it. Returns
+  // false if the scan should stop.
+  private static boolean call(Interpreter interpreter, Callable function,
+                              CharBuffer chunk, Object[] argument,
+                              List<Object> arguments) {
+    chunk.flip();
+    argument[0] = chunk.toString();
+    chunk.clear();
+    return function.call(interpreter, arguments) != Boolean.FALSE;
+  }
+
+  private static FileChannel open(String path) throws IOException {
+    try {
+      return FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+    } catch (InvalidPathException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static String path(Object value) {
+    if (value instanceof String) return (String)value;
+    throw new RuntimeError(null, "Operand must be a string.");
+  }
+
+  private static Callable function(Object value) {
+    if (value instanceof Callable) return (Callable)value;
+    throw new RuntimeError(null, "Can only call functions and classes.");
+  }
+}
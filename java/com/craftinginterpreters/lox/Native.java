@@ -0,0 +1,16 @@
+package com.craftinginterpreters.lox;
+
+// A native function that takes [arity] arguments. It throws RuntimeErrors
+// without a token, the call reports them at its own line.
+abstract class Native implements Callable {
+  private final int arity;
+
+  Native(int arity) {
+    this.arity = arity;
+  }
+
+  @Override
+  public int requiredArguments() {
+    return arity;
+  }
+}
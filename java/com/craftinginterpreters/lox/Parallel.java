@@ -0,0 +1,221 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// The native functions that spread a computation over the cores, on the
+// common ForkJoinPool:
+//
+//   parallelMap(seq, fn)              A sequence of fn(element).
+//   parallelReduce(seq, identity, fn) Combines the elements with
+//                                     fn(left, right).
+//   sequenceLength(seq)               The number of elements.
+//   sequenceAt(seq, index)            An element.
+//
+// Lox has no lists, so a sequence is either a count n, for the numbers 0 to
+// n - 1, or a sequence returned by parallelMap, which cannot be modified.
+// The numbers of a count are made as fn is called, not stored.
+//
+// The elements are split in halves down to slices of LEAF_SIZE elements
+// whatever the number of cores, and each slice is run in its own fork of
+// the Interpreter, see Concurrency. The result of parallelMap keeps the
+// order of the elements. parallelReduce reduces each slice from identity
+// then combines the slices in order, so it gives the same result on every
+// run as long as identity is an identity of fn, even when fn is not quite
+// associative, like + on numbers.
+//
+// fn runs on several threads at once. It can assign the variables it
+// captures, globals included, and the fields of the instances it shares
+// with the other calls without corrupting them, see SharedMap, but in no
+// particular order, so a result that depends on those writes is not
+// deterministic.
+final class Parallel {
+  private Parallel() {}
+
+  // Enough calls to a Lox function to be worth a task.
+  private static final int LEAF_SIZE = 16;
+
+  static void defineNatives(Environment globals) {
+    globals.define("parallelMap", new Native(2) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Sequence elements = sequence(arguments.get(0));
+        Callable function = function(arguments.get(1), 1);
+        Object[] results = new Object[elements.size];
+        interpreter.globals.sharing.enabled = true;
+        ForkJoinPool.commonPool().invoke(new MapTask(interpreter, function,
+            elements, results, 0, elements.size));
+        return new Sequence(results);
+      }
+    });
+
+    globals.define("parallelReduce", new Native(3) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Sequence elements = sequence(arguments.get(0));
+        Callable function = function(arguments.get(2), 2);
+        interpreter.globals.sharing.enabled = true;
+        return ForkJoinPool.commonPool().invoke(new ReduceTask(interpreter,
+            function, elements, arguments.get(1), 0, elements.size));
+      }
+    });
+
+    globals.define("sequenceLength", new Native(1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return (double)sequence(arguments.get(0)).size;
+      }
+    });
+
+    globals.define("sequenceAt", new Native(2) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Sequence elements = sequence(arguments.get(0));
+        Object index = arguments.get(1);
+        if (!(index instanceof Double) ||
+            (double)index != Math.floor((double)index) ||
+            (double)index < 0 || (double)index >= elements.size) {
+          throw new RuntimeError(null, "Index out of bounds.");
+        }
+        return elements.get((int)(double)index);
+      }
+    });
+  }
+
+  static final class Sequence {
+    // Null for the numbers 0 to size - 1.
+    private final Object[] elements;
+    final int size;
+
+    Sequence(Object[] elements) {
+      this.elements = elements;
+      size = elements.length;
+    }
+
+    private Sequence(int size) {
+      elements = null;
+      this.size = size;
+    }
+
+    Object get(int index) {
+      return elements == null ? (Object)(double)index : elements[index];
+    }
+
+    @Override
+    public String toString() {
+      return "<sequence>";
+    }
+  }
+
+  private static final class MapTask extends RecursiveAction {
+    private final Interpreter interpreter;
+    private final Callable function;
+    private final Sequence elements;
+    private final Object[] results;
+    private final int start;
+    private final int end;
+
+    MapTask(Interpreter interpreter, Callable function, Sequence elements,
+            Object[] results, int start, int end) {
+      this.interpreter = interpreter;
+      this.function = function;
+      this.elements = elements;
+      this.results = results;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= LEAF_SIZE) {
+        Interpreter fork = interpreter.fork();
+        try {
+          for (int i = start; i < end; i++) {
+            results[i] = function.call(fork, Arrays.asList(elements.get(i)));
+          }
+        } finally {
+          fork.endFork();
+        }
+        return;
+      }
+
+      int middle = (start + end) >>> 1;
+      invokeAll(
+          new MapTask(interpreter, function, elements, results, start,
+              middle),
+          new MapTask(interpreter, function, elements, results, middle,
+              end));
+    }
+  }
+
+  private static final class ReduceTask extends RecursiveTask<Object> {
+    private final Interpreter interpreter;
+    private final Callable function;
+    private final Sequence elements;
+    private final Object identity;
+    private final int start;
+    private final int end;
+
+    ReduceTask(Interpreter interpreter, Callable function, Sequence elements,
+               Object identity, int start, int end) {
+      this.interpreter = interpreter;
+      this.function = function;
+      this.elements = elements;
+      this.identity = identity;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected Object compute() {
+      Interpreter fork = interpreter.fork();
+      try {
+        if (end - start <= LEAF_SIZE) {
+          Object result = identity;
+          for (int i = start; i < end; i++) {
+            result = function.call(fork,
+                Arrays.asList(result, elements.get(i)));
+          }
+          return result;
+        }
+
+        int middle = (start + end) >>> 1;
+        ReduceTask left = new ReduceTask(interpreter, function, elements,
+            identity, start, middle);
+        ReduceTask right = new ReduceTask(interpreter, function, elements,
+            identity, middle, end);
+        left.fork();
+        Object rightResult = right.compute();
+        return function.call(fork, Arrays.asList(left.join(), rightResult));
+      } finally {
+        fork.endFork();
+      }
+    }
+  }
+
+  private static Sequence sequence(Object sequence) {
+    if (sequence instanceof Sequence) return (Sequence)sequence;
+
+    if (sequence instanceof Double &&
+        (double)sequence == Math.floor((double)sequence) &&
+        (double)sequence >= 0 && (double)sequence <= Integer.MAX_VALUE) {
+      return new Sequence((int)(double)sequence);
+    }
+
+    throw new RuntimeError(null,
+        "Operand must be a sequence or a non-negative integer.");
+  }
+
+  private static Callable function(Object function, int arity) {
+    if (!(function instanceof Callable)) {
+      throw new RuntimeError(null, "Can only call functions and classes.");
+    }
+    if (((Callable)function).requiredArguments() > arity) {
+      throw new RuntimeError(null, "Not enough arguments.");
+    }
+    return (Callable)function;
+  }
+}
@@ -0,0 +1,82 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+// Measures how fast the Parser parses, without scanning.
+//
+//   java -cp build/java com.craftinginterpreters.lox.ParseBenchmark [script]
+//
+// Without a script, parses a generated script made of long expressions that
+// use every precedence level.
+public class ParseBenchmark {
+  private static final int ROUNDS = 20;
+
+  public static void main(String[] args) throws IOException {
+    String source = args.length == 0
+        ? generate(20_000)
+        : new String(Files.readAllBytes(Paths.get(args[0])),
+              StandardCharsets.UTF_8);
+    TokenArray tokens = new ArrayScanner(source).scanTokens();
+    System.out.println(tokens.size() + " tokens");
+
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      List<Stmt> statements = new Parser((TokenSource)tokens).parse();
+      long time = System.nanoTime() - start;
+      if (Lox.hadError || statements.isEmpty()) System.exit(65);
+
+      best = Math.min(best, time);
+      System.out.printf("round %2d: %4d ms%n", round, time / 1_000_000);
+    }
+    System.out.printf("best: %d ms%n", best / 1_000_000);
+  }
+
+  private static String generate(int lines) {
+    Random random = new Random(0);
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      builder.append("var v").append(i).append(" = ");
+      expression(builder, random, 4);
+      builder.append(";\n");
+    }
+    return builder.toString();
+  }
+
+  private static final String[] OPERATORS = {
+    "or", "and", "==", "!=", "<", "<=", ">", ">=", "+", "-", "*", "/"
+  };
+
+  private static void expression(StringBuilder builder, Random random,
+                                 int depth) {
+    if (depth == 0) {
+      switch (random.nextInt(6)) {
+        case 0: builder.append(random.nextInt(100)); break;
+        case 1: builder.append("\"s\""); break;
+        case 2: builder.append("a.b"); break;
+        case 3: builder.append("f(1, x)"); break;
+        case 4: builder.append("-x"); break;
+        default: builder.append("!true"); break;
+      }
+      return;
+    }
+
+    if (random.nextInt(4) == 0) {
+      builder.append("(");
+      expression(builder, random, depth - 1);
+      builder.append(")");
+      return;
+    }
+
+    expression(builder, random, depth - 1);
+    builder.append(' ')
+        .append(OPERATORS[random.nextInt(OPERATORS.length)])
+        .append(' ');
+    expression(builder, random, depth - 1);
+  }
+}
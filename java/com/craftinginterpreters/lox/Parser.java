@@ -16,11 +16,49 @@ class Parser {
   private static class ParseError extends RuntimeException {}
 
 //< parse-error
-  private final List<Token> tokens;
+  private final TokenSource tokens;
+  // If function bodies are only skimmed, see LazyBody.
+  private final boolean lazy;
+  // If variables are resolved while parsing, instead of by the Resolver.
+  private final Binder binder;
   private int current = 0;
+  // Kept by the parser, a Context does not set Lox.hadError.
+  private boolean hadError = false;
 
   Parser(List<Token> tokens) {
+    this(TokenSource.of(tokens));
+  }
+
+  Parser(TokenSource tokens) {
+    this(tokens, false);
+  }
+
+  Parser(TokenSource tokens, boolean lazy) {
+    this(tokens, lazy, null);
+  }
+
+  Parser(TokenSource tokens, boolean lazy, Binder binder) {
     this.tokens = tokens;
+    this.lazy = lazy;
+    this.binder = binder;
+  }
+
+  // Parses the body of a function skimmed by a lazy parser, starting after
+  // its '{'. Returns null if the body has a syntax error.
+  List<Stmt> parseBody(int start) {
+    current = start;
+    try {
+      List<Stmt> body = block();
+      if (binder != null && !hadError) binder.reportErrors();
+      return body;
+    } catch (ParseError error) {
+      return null;
+    }
+  }
+
+  // Whether this parser has reported a syntax error.
+  boolean hadError() {
+    return hadError;
   }
 /* Parsing Expressions parse < Statements and State parse
   Expr parse() {
@@ -43,6 +81,11 @@ class Parser {
 //< parse-declaration
     }
 
+    // They only matter if the program has no syntax error, the scanner
+    // reports its own errors before.
+    if (binder != null && !hadError && !Lox.hadError()) {
+      binder.reportErrors();
+    }
     return statements;
   }
 //< Statements and State parse
@@ -52,7 +95,7 @@ class Parser {
     return equality();
 */
 //> Statements and State expression
-    return assignment();
+    return parsePrecedence(Precedence.ASSIGNMENT);
 //< Statements and State expression
   }
 //< expression
@@ -78,12 +121,19 @@ class Parser {
 
   private Stmt classDeclaration() {
     Token name = consume(IDENTIFIER, "Expect class name.");
+    Binder.ClassType enclosingClass = null;
+    if (binder != null) {
+      binder.declare(name);
+      binder.define(name);
+      enclosingClass = binder.beginClass();
+    }
 //> Inheritance not-yet
 
     Expr superclass = null;
     if (match(LESS)) {
       consume(IDENTIFIER, "Expect superclass name.");
       superclass = new Expr.Variable(previous());
+      if (binder != null) binder.superclass((Expr.Variable)superclass);
     }
 //< Inheritance not-yet
 
@@ -95,6 +145,7 @@ class Parser {
     }
 
     consume(RIGHT_BRACE, "Expect '}' after class body.");
+    if (binder != null) binder.endClass(enclosingClass);
 
 /* Classes not-yet < Inheritance not-yet
     return new Stmt.Class(name, methods);
@@ -117,8 +168,14 @@ class Parser {
 //> Control Flow not-yet
     if (match(WHILE)) return whileStatement();
 //< Control Flow not-yet
+    if (match(YIELD)) return yieldStatement();
 //> parse-block
-    if (match(LEFT_BRACE)) return new Stmt.Block(block());
+    if (match(LEFT_BRACE)) {
+      if (binder != null) binder.beginScope();
+      Stmt block = new Stmt.Block(block());
+      if (binder != null) binder.endScope();
+      return block;
+    }
 //< parse-block
 
     return expressionStatement();
@@ -127,9 +184,16 @@ class Parser {
 //> Control Flow not-yet
 
   private Stmt forStatement() {
+    Token keyword = previous();
     // Parse it.
     consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
+    // The scopes of the blocks of the desugared loop. The increment is
+    // resolved before the body, which cannot declare anything in the scope
+    // they share.
+    boolean scoped = binder != null && !check(SEMICOLON);
+    if (scoped) binder.beginScope();
+
     Stmt initializer;
     if (match(SEMICOLON)) {
       initializer = null;
@@ -147,11 +211,14 @@ class Parser {
 
     Stmt increment = null;
     if (!check(RIGHT_PAREN)) {
+      if (binder != null) binder.beginScope();
       increment = new Stmt.Expression(expression());
     }
     consume(RIGHT_PAREN, "Expect ')' after for clauses.");
 
     Stmt body = statement();
+    if (binder != null && increment != null) binder.endScope();
+    if (scoped) binder.endScope();
 
     // Desugar to a while loop.
     if (increment != null) {
@@ -159,7 +226,7 @@ class Parser {
     }
 
     if (condition == null) condition = new Expr.Literal(true);
-    body = new Stmt.While(condition, body);
+    body = new Stmt.While(keyword, condition, body);
 
     if (initializer != null) {
       body = new Stmt.Block(Arrays.asList(initializer, body));
@@ -192,6 +259,7 @@ class Parser {
 //> Functions not-yet
   private Stmt returnStatement() {
     Token keyword = previous();
+    if (binder != null) binder.returnStatement(keyword, !check(SEMICOLON));
     Expr value = null;
     if (!check(SEMICOLON)) {
       value = expression();
@@ -201,14 +269,28 @@ class Parser {
     return new Stmt.Return(keyword, value);
   }
 //< Functions not-yet
+
+  private Stmt yieldStatement() {
+    Token keyword = previous();
+    if (binder != null) binder.yieldStatement(keyword);
+    Expr value = null;
+    if (!check(SEMICOLON)) {
+      value = expression();
+    }
+
+    consume(SEMICOLON, "Expect ';' after yield value.");
+    return new Stmt.Yield(keyword, value);
+  }
 //> Statements and State parse-var-declaration
   private Stmt varDeclaration() {
     Token name = consume(IDENTIFIER, "Expect variable name.");
+    if (binder != null) binder.declare(name);
 
     Expr initializer = null;
     if (match(EQUAL)) {
       initializer = expression();
     }
+    if (binder != null) binder.define(name);
 
     consume(SEMICOLON, "Expect ';' after variable declaration.");
     return new Stmt.Var(name, initializer);
@@ -217,12 +299,13 @@ class Parser {
 //> Control Flow not-yet
 
   private Stmt whileStatement() {
+    Token keyword = previous();
     consume(LEFT_PAREN, "Expect '(' after 'while'.");
     Expr condition = expression();
     consume(RIGHT_PAREN, "Expect ')' after condition.");
     Stmt body = statement();
 
-    return new Stmt.While(condition, body);
+    return new Stmt.While(keyword, condition, body);
   }
 //< Control Flow not-yet
 //> Statements and State parse-expression-statement
@@ -236,6 +319,17 @@ class Parser {
 
   private Stmt.Function function(String kind) {
     Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
+    Binder.FunctionType enclosingFunction = null;
+    if (binder != null) {
+      if (kind.equals("method")) {
+        enclosingFunction = binder.beginMethod(name);
+      } else {
+        binder.declare(name);
+        binder.define(name);
+        enclosingFunction = binder.beginFunction(Binder.FunctionType.FUNCTION);
+      }
+    }
+
     consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
     List<Token> parameters = new ArrayList<>();
     if (!check(RIGHT_PAREN)) {
@@ -244,16 +338,62 @@ class Parser {
           error(peek(), "Cannot have more than 8 parameters.");
         }
 
-        parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+        Token parameter = consume(IDENTIFIER, "Expect parameter name.");
+        if (binder != null) {
+          binder.declare(parameter);
+          binder.define(parameter);
+        }
+        parameters.add(parameter);
       } while (match(COMMA));
     }
     consume(RIGHT_PAREN, "Expect ')' after parameters.");
 
     consume(LEFT_BRACE, "Expect '{' before function body.");
-    List<Stmt> body = block();
+    List<Stmt> body = lazy ? skimBody(name) : block();
+
+    if (binder != null) {
+      if (kind.equals("method")) {
+        binder.endMethod(enclosingFunction);
+      } else {
+        binder.endFunction(enclosingFunction);
+      }
+    }
     return new Stmt.Function(name, parameters, body);
   }
 //< Functions not-yet
+  // Only matches the braces and checks what needs no parsing, the body is
+  // parsed when it is first used. Other syntax errors are reported then.
+  private List<Stmt> skimBody(Token name) {
+    int start = current;
+    int depth = 1;
+    while (!isAtEnd()) {
+      TokenType type = type(current);
+      if (type == LEFT_BRACE) {
+        depth++;
+      } else if (type == RIGHT_BRACE && --depth == 0) {
+        break;
+      } else if (type == SUPER) {
+        skimSuper();
+        continue;
+      }
+      current++;
+    }
+
+    consume(RIGHT_BRACE, "Expect '}' after block.");
+    LazyBody body = new LazyBody(tokens, start, name);
+    if (binder != null) body.resolveLater(binder.copy(), true);
+    return body;
+  }
+
+  private void skimSuper() {
+    current++;
+    if (!check(DOT)) {
+      error(peek(), "Expect '.' after 'super'.");
+      return;
+    }
+    current++;
+    if (!check(IDENTIFIER)) error(peek(), "Expect superclass method name.");
+  }
 //> Statements and State block
   private List<Stmt> block() {
     List<Stmt> statements = new ArrayList<>();
@@ -266,128 +406,177 @@ class Parser {
     return statements;
   }
 //< Statements and State block
-//> Statements and State parse-assignment
-  private Expr assignment() {
-/* Statements and State parse-assignment < Control Flow not-yet
-    Expr expr = equality();
-*/
-//> Control Flow not-yet
-    Expr expr = or();
-//< Control Flow not-yet
-
-    if (match(EQUAL)) {
-      Token equals = previous();
-      Expr value = assignment();
-
-      if (expr instanceof Expr.Variable) {
-        Token name = ((Expr.Variable)expr).name;
-        return new Expr.Assign(name, value);
-//> Classes not-yet
-      } else if (expr instanceof Expr.Get) {
-        Expr.Get get = (Expr.Get)expr;
-        return new Expr.Set(get.object, get.name, value);
-//< Classes not-yet
-      }
-
-      error(equals, "Invalid assignment target.");
+  // Expressions are parsed by precedence climbing, like clox does, using a
+  // table that gives for each type of token how to parse an expression that
+  // starts with it, how to parse an expression that continues with it, and
+  // how tightly it binds. It builds the same tree as a function per
+  // precedence level would, without going through every level for each
+  // operand.
+  private enum Precedence {
+    NONE,
+    ASSIGNMENT,  // =
+    OR,          // or
+    AND,         // and
+    EQUALITY,    // == !=
+    COMPARISON,  // < > <= >=
+    TERM,        // + -
+    FACTOR,      // * /
+    UNARY,       // ! -
+    CALL,        // . ()
+    PRIMARY;
+
+    private static final Precedence[] VALUES = values();
+
+    Precedence next() {
+      return VALUES[ordinal() + 1];
     }
+  }
 
-    return expr;
+  private interface Prefix {
+    Expr parse(Parser parser);
+  }
+
+  private interface Infix {
+    Expr parse(Parser parser, Expr left);
+  }
+
+  private static final int TYPES = TokenType.values().length;
+  private static final Prefix[] PREFIXES = new Prefix[TYPES];
+  private static final Infix[] INFIXES = new Infix[TYPES];
+  private static final Precedence[] PRECEDENCES = new Precedence[TYPES];
+
+  private static void rule(TokenType type, Prefix prefix, Infix infix,
+                           Precedence precedence) {
+    PREFIXES[type.ordinal()] = prefix;
+    INFIXES[type.ordinal()] = infix;
+    PRECEDENCES[type.ordinal()] = precedence;
+  }
+
+  static {
+    Arrays.fill(PRECEDENCES, Precedence.NONE);
+
+    rule(LEFT_PAREN, Parser::grouping, Parser::finishCall, Precedence.CALL);
+    rule(DOT, null, Parser::get, Precedence.CALL);
+    rule(MINUS, Parser::unary, Parser::binary, Precedence.TERM);
+    rule(PLUS, null, Parser::binary, Precedence.TERM);
+    rule(SLASH, null, Parser::binary, Precedence.FACTOR);
+    rule(STAR, null, Parser::binary, Precedence.FACTOR);
+    rule(BANG, Parser::unary, null, Precedence.NONE);
+    rule(BANG_EQUAL, null, Parser::binary, Precedence.EQUALITY);
+    rule(EQUAL, null, Parser::assign, Precedence.ASSIGNMENT);
+    rule(EQUAL_EQUAL, null, Parser::binary, Precedence.EQUALITY);
+    rule(GREATER, null, Parser::binary, Precedence.COMPARISON);
+    rule(GREATER_EQUAL, null, Parser::binary, Precedence.COMPARISON);
+    rule(LESS, null, Parser::binary, Precedence.COMPARISON);
+    rule(LESS_EQUAL, null, Parser::binary, Precedence.COMPARISON);
+    rule(IDENTIFIER, Parser::variable, null, Precedence.NONE);
+    rule(STRING, Parser::literal, null, Precedence.NONE);
+    rule(NUMBER, Parser::literal, null, Precedence.NONE);
+    rule(AND, null, Parser::logical, Precedence.AND);
+    rule(FALSE, Parser::literal, null, Precedence.NONE);
+    rule(NIL, Parser::literal, null, Precedence.NONE);
+    rule(OR, null, Parser::logical, Precedence.OR);
+    rule(SUPER, Parser::superExpr, null, Precedence.NONE);
+    rule(THIS, Parser::thisExpr, null, Precedence.NONE);
+    rule(TRUE, Parser::literal, null, Precedence.NONE);
+  }
+
+  // Parses an expression whose operators bind at least as tightly as
+  // [precedence].
+  private Expr parsePrecedence(Precedence precedence) {
+    Prefix prefix = PREFIXES[type(current).ordinal()];
+    if (prefix == null) throw error(peek(), "Expect expression.");
+
+    current++;
+    Expr expr = prefix.parse(this);
+
+    for (;;) {
+      int type = type(current).ordinal();
+      if (PRECEDENCES[type].compareTo(precedence) < 0) return expr;
+
+      current++;
+      expr = INFIXES[type].parse(this, expr);
+    }
   }
-//< Statements and State parse-assignment
-//> Control Flow not-yet
 
-  private Expr or() {
-    Expr expr = and();
+  // Right-associative, the value is itself an assignment.
+  private Expr assign(Expr expr) {
+    Token equals = previous();
+    Expr value = parsePrecedence(Precedence.ASSIGNMENT);
 
-    while (match(OR)) {
-      Token operator = previous();
-      Expr right = and();
-      expr = new Expr.Logical(expr, operator, right);
+    if (expr instanceof Expr.Variable) {
+      Token name = ((Expr.Variable)expr).name;
+      Expr.Assign assign = new Expr.Assign(name, value);
+      if (binder != null) binder.assign(assign);
+      return assign;
+    } else if (expr instanceof Expr.Get) {
+      Expr.Get get = (Expr.Get)expr;
+      return new Expr.Set(get.object, get.name, value);
     }
 
+    error(equals, "Invalid assignment target.");
     return expr;
   }
 
-  private Expr and() {
-    Expr expr = equality();
+  private Expr logical(Expr left) {
+    Token operator = previous();
+    Expr right = parsePrecedence(PRECEDENCES[operator.type.ordinal()].next());
+    return new Expr.Logical(left, operator, right);
+  }
 
-    while (match(AND)) {
-      Token operator = previous();
-      Expr right = equality();
-      expr = new Expr.Logical(expr, operator, right);
-    }
+  private Expr binary(Expr left) {
+    Token operator = previous();
+    Expr right = parsePrecedence(PRECEDENCES[operator.type.ordinal()].next());
+    return new Expr.Binary(left, operator, right);
+  }
 
-    return expr;
+  private Expr unary() {
+    Token operator = previous();
+    Expr right = parsePrecedence(Precedence.UNARY);
+    return new Expr.Unary(operator, right);
   }
-//< Control Flow not-yet
-//> equality
-  private Expr equality() {
-    Expr expr = comparison();
-
-    while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-      Token operator = previous();
-      Expr right = comparison();
-      expr = new Expr.Binary(expr, operator, right);
-    }
 
-    return expr;
+  private Expr get(Expr object) {
+    Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+    return new Expr.Get(object, name);
   }
-//< equality
-//> comparison
-  private Expr comparison() {
-    Expr expr = term();
 
-    while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-      Token operator = previous();
-      Expr right = term();
-      expr = new Expr.Binary(expr, operator, right);
+  private Expr literal() {
+    switch (type(current - 1)) {
+      case FALSE: return new Expr.Literal(false);
+      case TRUE: return new Expr.Literal(true);
+      case NIL: return new Expr.Literal(null);
+      default: return new Expr.Literal(previous().literal);
     }
+  }
 
+  private Expr superExpr() {
+    Token keyword = previous();
+    consume(DOT, "Expect '.' after 'super'.");
+    Token method = consume(IDENTIFIER, "Expect superclass method name.");
+    Expr.Super expr = new Expr.Super(keyword, method);
+    if (binder != null) binder.superExpr(expr);
     return expr;
   }
-//< comparison
-//> term-and-factor
-  private Expr term() {
-    Expr expr = factor();
-
-    while (match(MINUS, PLUS)) {
-      Token operator = previous();
-      Expr right = factor();
-      expr = new Expr.Binary(expr, operator, right);
-    }
 
+  private Expr thisExpr() {
+    Expr.This expr = new Expr.This(previous());
+    if (binder != null) binder.thisExpr(expr);
     return expr;
   }
 
-  private Expr factor() {
-    Expr expr = unary();
-
-    while (match(SLASH, STAR)) {
-      Token operator = previous();
-      Expr right = unary();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
+  private Expr variable() {
+    Expr.Variable expr = new Expr.Variable(previous());
+    // An assignment target is resolved as such, after the value.
+    if (binder != null && type(current) != EQUAL) binder.variable(expr);
     return expr;
   }
-//< term-and-factor
-//> unary
-  private Expr unary() {
-    if (match(BANG, MINUS)) {
-      Token operator = previous();
-      Expr right = unary();
-      return new Expr.Unary(operator, right);
-    }
 
-/* Parsing Expressions unary < Functions not-yet
-    return primary();
-*/
-//> Functions not-yet
-    return call();
-//< Functions not-yet
+  private Expr grouping() {
+    Expr expr = expression();
+    consume(RIGHT_PAREN, "Expect ')' after expression.");
+    return new Expr.Grouping(expr);
   }
-//< unary
 //> Functions not-yet
   private Expr finishCall(Expr callee) {
     List<Expr> arguments = new ArrayList<>();
@@ -407,73 +596,11 @@ class Parser {
     return new Expr.Call(callee, paren, arguments);
   }
 
-  private Expr call() {
-    Expr expr = primary();
-
-    while (true) {
-      if (match(LEFT_PAREN)) {
-        expr = finishCall(expr);
-//> Classes not-yet
-      } else if (match(DOT)) {
-        Token name = consume(IDENTIFIER,
-            "Expect property name after '.'.");
-        expr = new Expr.Get(expr, name);
-//< Classes not-yet
-      } else {
-        break;
-      }
-    }
-
-    return expr;
-  }
-//< Functions not-yet
-//> primary
-
-  private Expr primary() {
-    if (match(FALSE)) return new Expr.Literal(false);
-    if (match(TRUE)) return new Expr.Literal(true);
-    if (match(NIL)) return new Expr.Literal(null);
-
-    if (match(NUMBER, STRING)) {
-      return new Expr.Literal(previous().literal);
-    }
-//> Inheritance not-yet
-
-    if (match(SUPER)) {
-      Token keyword = previous();
-      consume(DOT, "Expect '.' after 'super'.");
-      Token method = consume(IDENTIFIER,
-          "Expect superclass method name.");
-      return new Expr.Super(keyword, method);
-    }
-//< Inheritance not-yet
-//> Classes not-yet
-
-    if (match(THIS)) return new Expr.This(previous());
-//< Classes not-yet
-//> Statements and State parse-identifier
-
-    if (match(IDENTIFIER)) {
-      return new Expr.Variable(previous());
-    }
-//< Statements and State parse-identifier
-
-    if (match(LEFT_PAREN)) {
-      Expr expr = expression();
-      consume(RIGHT_PAREN, "Expect ')' after expression.");
-      return new Expr.Grouping(expr);
-    }
-//> primary-error
-
-    throw error(peek(), "Expect expression.");
-//< primary-error
-  }
-//< primary
 //> match
   private boolean match(TokenType... types) {
     for (TokenType type : types) {
       if (check(type)) {
-        advance();
+        current++;
         return true;
       }
     }
@@ -491,7 +618,7 @@ class Parser {
 //> check
   private boolean check(TokenType tokenType) {
     if (isAtEnd()) return false;
-    return peek().type == tokenType;
+    return type(current) == tokenType;
   }
 //< check
 //> advance
@@ -502,7 +629,12 @@ class Parser {
 //< advance
 //> utils
   private boolean isAtEnd() {
-    return peek().type == EOF;
+    return type(current) == EOF;
+  }
+
+  // Testing the type of a token does not require the source to create it.
+  private TokenType type(int index) {
+    return tokens.type(index);
   }
 
   private Token peek() {
@@ -516,17 +648,18 @@ class Parser {
 //> error
   private ParseError error(Token token, String message) {
     Lox.error(token, message);
+    hadError = true;
     return new ParseError();
   }
 //< error
 //> synchronize
   private void synchronize() {
-    advance();
+    if (!isAtEnd()) current++;
 
     while (!isAtEnd()) {
-      if (previous().type == SEMICOLON) return;
+      if (type(current - 1) == SEMICOLON) return;
 
-      switch (peek().type) {
+      switch (type(current)) {
         case CLASS:
         case FUN:
         case VAR:
@@ -535,10 +668,11 @@ class Parser {
         case WHILE:
         case PRINT:
         case RETURN:
+        case YIELD:
           return;
       }
 
-      advance();
+      current++;
     }
   }
 //< synchronize
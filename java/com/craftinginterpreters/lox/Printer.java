@@ -0,0 +1,274 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Where print writes. The values are encoded into a buffer, which is written
+// to the stream once it is full and when the Printer is flushed, instead of
+// each line going through a PrintStream that locks, encodes and flushes it
+// on its own. Numbers are formatted straight into the buffer, like
+// Interpreter.stringify does, without building a String for the common ones.
+//
+// With a size of 0, each line is written and flushed at once, as a terminal
+// expects. With a writer thread, a full buffer is handed to the thread while
+// print goes on filling another one.
+//
+// Whoever creates a Printer flushes it before exiting, and before reporting
+// an error so it comes after what the script printed. The tasks of a script
+// share its Printer, see Interpreter.fork. Like a PrintStream, a Printer
+// ignores the errors of its stream.
+final class Printer {
+  // The size of the buffer of jlox, see Lox, and of a Context by default.
+  static final int BUFFER_SIZE = 1 << 16;
+
+  private static final int MIN_SIZE = 256;
+
+  // A full buffer and the ones in the queues of the writer thread.
+  private static final int BUFFERS = 3;
+
+  // The longest number the fast path writes: a sign, 7 digits before the
+  // point and 15 after, plus the line separator.
+  private static final int NUMBER_SIZE = 32;
+
+  private static final double[] POWERS = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+    1e13, 1e14, 1e15
+  };
+
+  private final OutputStream target;
+  private final CharsetEncoder encoder;
+
+  // If the charset encodes the ASCII characters as ASCII does.
+  private final boolean ascii;
+
+  private final byte[] newline;
+  private final boolean flushLines;
+
+  private byte[] buffer;
+  private int count = 0;
+
+  // Null without a writer thread.
+  private final BlockingQueue<ByteBuffer> full;
+  private final BlockingQueue<byte[]> free;
+
+  Printer(OutputStream target, Charset charset, int size,
+          boolean background) {
+    this.target = target;
+    encoder = charset.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    ascii = charset.equals(StandardCharsets.UTF_8) ||
+        charset.equals(StandardCharsets.ISO_8859_1) ||
+        charset.equals(StandardCharsets.US_ASCII);
+    newline = System.lineSeparator().getBytes(charset);
+    flushLines = size == 0;
+    buffer = new byte[Math.max(size, MIN_SIZE)];
+
+    if (!background || flushLines) {
+      full = null;
+      free = null;
+      return;
+    }
+
+    full = new ArrayBlockingQueue<>(BUFFERS - 1);
+    free = new ArrayBlockingQueue<>(BUFFERS - 1);
+    for (int i = 0; i < BUFFERS - 1; i++) {
+      free.add(new byte[buffer.length]);
+    }
+    Thread writer = new Thread(this::writeBuffers, "lox-print");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  synchronized void println(Object value) {
+    if (value instanceof Double) {
+      if (buffer.length - count < NUMBER_SIZE) drain();
+      double number = (double)value;
+      if (!ascii || !digits(number)) text(format(number));
+    } else {
+      text(value == null ? "nil" : value.toString());
+    }
+
+    if (buffer.length - count < newline.length) drain();
+    System.arraycopy(newline, 0, buffer, count, newline.length);
+    count += newline.length;
+    if (flushLines) flush();
+  }
+
+  // Writes what is buffered, and waits for it to be written.
+  synchronized void flush() {
+    drain();
+    if (full != null) {
+      // All the buffers are back once the thread has written them.
+      byte[][] buffers = new byte[BUFFERS - 1][];
+      for (int i = 0; i < buffers.length; i++) {
+        buffers[i] = take(free);
+      }
+      for (byte[] written : buffers) {
+        free.add(written);
+      }
+    }
+
+    try {
+      target.flush();
+    } catch (IOException e) {
+      // Like a PrintStream.
+    }
+  }
+
+  private void text(String text) {
+    int length = text.length();
+    int i = 0;
+    if (ascii) {
+      while (i < length) {
+        if (count == buffer.length) drain();
+        int end = Math.min(length, i + buffer.length - count);
+        for (; i < end; i++) {
+          char c = text.charAt(i);
+          if (c >= 0x80) break;
+          buffer[count++] = (byte)c;
+        }
+        if (i < end) break;
+      }
+      if (i == length) return;
+    }
+
+    CharBuffer chars = CharBuffer.wrap(text, i, length);
+    encoder.reset();
+    CoderResult result;
+    do {
+      ByteBuffer bytes = ByteBuffer.wrap(buffer, count, buffer.length - count);
+      result = encoder.encode(chars, bytes, true);
+      count = bytes.position();
+      if (result.isOverflow()) drain();
+    } while (result.isOverflow());
+    do {
+      ByteBuffer bytes = ByteBuffer.wrap(buffer, count, buffer.length - count);
+      result = encoder.flush(bytes);
+      count = bytes.position();
+      if (result.isOverflow()) drain();
+    } while (result.isOverflow());
+  }
+
+  // Writes [value] like Interpreter.stringify formats it, if it is written
+  // without an exponent and has at most 15 significant digits. Returns
+  // false otherwise.
+  //
+  // The digits are the fewest after the point that give back [value] when
+  // divided by the power of ten, which is exact for such numbers, and they
+  // are the ones Double.toString writes.
+  private boolean digits(double value) {
+    double magnitude = Math.abs(value);
+    if (magnitude >= 1e7) return false;
+
+    long integer = (long)magnitude;
+    if (integer == magnitude) {
+      if (value < 0 || (value == 0 && 1 / value < 0)) buffer[count++] = '-';
+      count = digits(integer, count, 1);
+      return true;
+    }
+    if (magnitude < 1e-3) return false;
+
+    for (int scale = 1; scale < POWERS.length; scale++) {
+      double scaled = magnitude * POWERS[scale];
+      if (scaled >= 1e15) return false;
+
+      long digits = Math.round(scaled);
+      if (digits / POWERS[scale] != magnitude) continue;
+
+      if (value < 0) buffer[count++] = '-';
+      long unit = (long)POWERS[scale];
+      count = digits(digits / unit, count, 1);
+      buffer[count++] = '.';
+      count = digits(digits % unit, count, scale);
+      return true;
+    }
+    return false;
+  }
+
+  // Writes the decimal digits of [value], at least [width] of them, at
+  // [offset] and returns the offset after them.
+  private int digits(long value, int offset, int width) {
+    int length = 1;
+    for (long rest = value / 10; rest != 0; rest /= 10) length++;
+    length = Math.max(length, width);
+
+    for (int i = offset + length - 1; i >= offset; i--) {
+      buffer[i] = (byte)('0' + value % 10);
+      value /= 10;
+    }
+    return offset + length;
+  }
+
+  private static String format(double value) {
+    // Hack. Work around Java adding ".0" to integer-valued doubles.
+    String text = Double.toString(value);
+    if (text.endsWith(".0")) {
+      text = text.substring(0, text.length() - 2);
+    }
+    return text;
+  }
+
+  // Hands the buffer to the writer thread, or writes it.
+  private void drain() {
+    if (count == 0) return;
+    if (full == null) {
+      write(buffer, count);
+    } else {
+      // Taken first, so the queue has room for this one once written.
+      byte[] next = take(free);
+      put(ByteBuffer.wrap(buffer, 0, count));
+      buffer = next;
+    }
+    count = 0;
+  }
+
+  private void write(byte[] bytes, int length) {
+    try {
+      target.write(bytes, 0, length);
+    } catch (IOException e) {
+      // Like a PrintStream.
+    }
+  }
+
+  // The loop of the writer thread.
+  private void writeBuffers() {
+    for (;;) {
+      ByteBuffer bytes;
+      try {
+        bytes = full.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      write(bytes.array(), bytes.limit());
+      free.add(bytes.array());
+    }
+  }
+
+  private void put(ByteBuffer bytes) {
+    try {
+      full.put(bytes);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeError(null, "Interrupted.");
+    }
+  }
+
+  private static byte[] take(BlockingQueue<byte[]> queue) {
+    try {
+      return queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeError(null, "Interrupted.");
+    }
+  }
+}
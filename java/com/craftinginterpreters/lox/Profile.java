@@ -0,0 +1,429 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The type profile of a script: how many times each function was called,
+// which function each call site called, and which operand types each binary
+// operator saw.
+//
+// When jlox runs with -Dlox.profile=<directory>, the profile is saved in that
+// directory at exit, in a file named after the hash of the script, and loaded
+// back the next time the same script runs, so the functions that were hot are
+// compiled, and specialized for the types they saw, before execution starts
+// instead of after a warm-up.
+//
+// Sites are numbered by walking the syntax tree in order, so they are stable
+// as long as the source does not change, which the hash guarantees. The walk
+// needs every function body, so there is no profile with -Dlox.lazy.
+final class Profile implements ClosureCompiler.Feedback {
+  // Operand types seen by a binary operator.
+  static final int NUMBER = 1;
+  static final int STRING = 2;
+  static final int OTHER = 4;
+
+  // The number of calls in the previous runs after which a function is
+  // compiled before the script starts.
+  private static final int HOT_INVOCATIONS = 1000;
+
+  private static final int MAGIC = 0x4C4F5850; // "LOXP".
+  private static final int VERSION = 1;
+
+  private static final byte INVOCATIONS = 0;
+  private static final byte OPERAND_TYPES = 1;
+  private static final byte TARGET = 2;
+
+  // A call site that saw more than one function.
+  private static final int MEGAMORPHIC = -1;
+
+  private final Path file;
+
+  // The profiled nodes, in tree order, and their index.
+  private final List<Object> nodes = new ArrayList<>();
+  private final Map<Object, Integer> indices = new IdentityHashMap<>();
+
+  // Indexed by site, as loaded then updated by this run.
+  private int[] invocations;
+  private int[] operandTypes;
+  private int[] targets; // Site index of the callee plus one, 0 if unknown.
+  private FunctionSite[] sites;
+
+  private Profile(Path file) {
+    this.file = file;
+  }
+
+  // Returns the profile of [source], or null if profiling is disabled.
+  static Profile open(ByteBuffer source) {
+    String directory = System.getProperty("lox.profile");
+    if (directory == null) return null;
+
+    return new Profile(Paths.get(directory, hash(source) + ".profile"));
+  }
+
+  static String hash(ByteBuffer source) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+
+    StringBuilder builder = new StringBuilder();
+    digest.update(source.duplicate());
+    for (byte b : digest.digest()) {
+      builder.append(String.format("%02x", b));
+    }
+    return builder.toString();
+  }
+
+  // Numbers the sites of [statements], loads the profile of the previous runs
+  // and compiles the functions that were hot.
+  void warmUp(Interpreter interpreter, List<Stmt> statements) {
+    new Numbering().number(statements);
+
+    int size = nodes.size();
+    invocations = new int[size];
+    operandTypes = new int[size];
+    targets = new int[size];
+    sites = new FunctionSite[size];
+    load(size);
+
+    ClosureCompiler compiler = null;
+    for (int i = 0; i < size; i++) {
+      if (!(nodes.get(i) instanceof Stmt.Function)) continue;
+
+      FunctionSite site = interpreter.site((Stmt.Function)nodes.get(i));
+      site.invocations = invocations[i];
+      sites[i] = site;
+
+      if (invocations[i] >= HOT_INVOCATIONS && site.yields().isEmpty()) {
+        if (compiler == null) {
+          compiler = new ClosureCompiler(interpreter.locals, this);
+        }
+        site.compiled = compiler.compileFunction(site.declaration);
+      }
+    }
+  }
+
+  // Ignores the profile if it is missing, corrupted or does not match the
+  // script, a profile is only a hint.
+  private void load(int size) {
+    if (!Files.exists(file)) return;
+
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION ||
+          in.readInt() != size) {
+        return;
+      }
+
+      int[] invocations = new int[size];
+      int[] operandTypes = new int[size];
+      int[] targets = new int[size];
+
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        byte kind = in.readByte();
+        int index = in.readInt();
+        int value = in.readInt();
+        if (index < 0 || index >= size) return;
+
+        switch (kind) {
+          case INVOCATIONS:
+            // Halve the previous runs so stale hot spots cool down.
+            invocations[index] = value / 2;
+            break;
+          case OPERAND_TYPES: operandTypes[index] = value; break;
+          case TARGET:
+            if (value != MEGAMORPHIC &&
+                (value < 1 || value > size ||
+                 !(nodes.get(value - 1) instanceof Stmt.Function))) {
+              return;
+            }
+            targets[index] = value;
+            break;
+          default:
+            return;
+        }
+      }
+
+      this.invocations = invocations;
+      this.operandTypes = operandTypes;
+      this.targets = targets;
+    } catch (IOException e) {
+      // Start from an empty profile.
+    }
+  }
+
+  // Writes the profile next to a temporary file and moves it in place, so a
+  // concurrent run never sees a half-written profile.
+  void save() {
+    Path temp = null;
+    try {
+      Files.createDirectories(file.getParent());
+      temp = Files.createTempFile(file.getParent(), "profile", ".tmp");
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        int size = nodes.size();
+        List<int[]> entries = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+          if (sites[i] != null && sites[i].invocations != 0) {
+            entries.add(new int[] { INVOCATIONS, i, sites[i].invocations });
+          }
+          if (operandTypes[i] != 0) {
+            entries.add(new int[] { OPERAND_TYPES, i, operandTypes[i] });
+          }
+          if (targets[i] != 0) {
+            entries.add(new int[] { TARGET, i, targets[i] });
+          }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(size);
+        out.writeInt(entries.size());
+        for (int[] entry : entries) {
+          out.writeByte(entry[0]);
+          out.writeInt(entry[1]);
+          out.writeInt(entry[2]);
+        }
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      System.err.println("Cannot save profile: " + e.getMessage());
+      if (temp != null) delete(temp);
+    }
+  }
+
+  // Deletes what a failed save left behind.
+  private static void delete(Path temp) {
+    try {
+      Files.deleteIfExists(temp);
+    } catch (IOException e) {
+      // Nothing more to do.
+    }
+  }
+
+  void recordOperands(Expr.Binary expr, Object left, Object right) {
+    Integer index = indices.get(expr);
+    if (index == null) return;
+
+    operandTypes[index] |= typeOf(left) | typeOf(right);
+  }
+
+  private static int typeOf(Object value) {
+    if (value instanceof Double) return NUMBER;
+    if (value instanceof String) return STRING;
+    return OTHER;
+  }
+
+  void recordTarget(Expr.Call expr, Object callee) {
+    Integer index = indices.get(expr);
+    if (index == null || targets[index] == MEGAMORPHIC) return;
+
+    Integer target = callee instanceof LoxFunction
+        ? indices.get(((LoxFunction)callee).declaration)
+        : null;
+    if (target == null) {
+      targets[index] = MEGAMORPHIC;
+    } else if (targets[index] == 0) {
+      targets[index] = target + 1;
+    } else if (targets[index] != target + 1) {
+      targets[index] = MEGAMORPHIC;
+    }
+  }
+
+  @Override
+  public int operandTypes(Expr.Binary expr) {
+    Integer index = indices.get(expr);
+    return index == null ? 0 : operandTypes[index];
+  }
+
+  @Override
+  public Stmt.Function target(Expr.Call expr) {
+    Integer index = indices.get(expr);
+    if (index == null || targets[index] <= 0) return null;
+    return (Stmt.Function)nodes.get(targets[index] - 1);
+  }
+
+  // Classes do not outlive a run.
+  @Override
+  public LoxClass receiver(Expr.Call expr) {
+    return null;
+  }
+
+  // Walks the syntax tree in order to give each function declaration, call
+  // and binary operator an index.
+  private class Numbering implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    void number(List<? extends Stmt> statements) {
+      for (Stmt statement : statements) {
+        statement.accept(this);
+      }
+    }
+
+    private void number(Expr expr) {
+      expr.accept(this);
+    }
+
+    private void site(Object node) {
+      indices.put(node, nodes.size());
+      nodes.add(node);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      number(stmt.statements);
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      if (stmt.superclass != null) number(stmt.superclass);
+      number(stmt.methods);
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      number(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      site(stmt);
+      number(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      number(stmt.condition);
+      stmt.thenBranch.accept(this);
+      if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      number(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      if (stmt.value != null) number(stmt.value);
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      if (stmt.initializer != null) number(stmt.initializer);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      number(stmt.condition);
+      stmt.body.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+      if (stmt.value != null) number(stmt.value);
+      return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      number(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      site(expr);
+      number(expr.left);
+      number(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      site(expr);
+      number(expr.callee);
+      for (Expr argument : expr.arguments) {
+        number(argument);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+      number(expr.object);
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      number(expr.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      number(expr.left);
+      number(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+      number(expr.value);
+      number(expr.object);
+      return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      number(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.Map;
+
+// A parsed and resolved script, compiled by a Context. It is never modified
+// afterwards, so any number of Contexts can run it, at the same time.
+//
+// It is kept packed, see CompactAst, as a host may keep many of them
+// loaded. Each Context builds the tree it runs the first time it runs the
+// Program, and the body of a function the first time it is called, so the
+// parts of a script that never run stay packed.
+public final class Program {
+  private final CompactAst ast;
+
+  Program(List<Stmt> statements, Map<Expr, Integer> locals) {
+    ast = CompactAst.encode(statements, locals);
+  }
+
+  // Builds the tree, adding its resolved variables to [locals], a
+  // concurrent map as they are added while the script runs.
+  List<Stmt> statements(Map<Expr, Integer> locals) {
+    return ast.statements(locals);
+  }
+}
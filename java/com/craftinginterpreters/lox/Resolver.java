@@ -3,97 +3,61 @@ package com.craftinginterpreters.lox;
 
 import java.util.*;
 
+// Walks a parsed tree in order to bind each variable to its declaration, see
+// Binder. The Parser can also do it as it parses, see Lox.
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-  private final Stack<Map<String, Boolean>> scopes = new Stack<>();
-  private final Map<Expr, Integer> locals = new HashMap<>();
-
-  private enum FunctionType {
-    NONE,
-/* Resolving and Binding not-yet < Classes not-yet
-    FUNCTION
-*/
-//> Classes not-yet
-    FUNCTION,
-    METHOD,
-    INITIALIZER
-//< Classes not-yet
+  private final Binder binder;
+
+  Resolver() {
+    this(new HashMap<>());
   }
 
-  private FunctionType currentFunction = FunctionType.NONE;
-//> Classes not-yet
-
-  private enum ClassType {
-    NONE,
-/* Classes not-yet < Inheritance not-yet
-    CLASS
- */
-//> Inheritance not-yet
-    CLASS,
-    SUBCLASS
-//< Inheritance not-yet
+  // Lazy bodies are resolved as the script runs, possibly while a compiler
+  // thread reads [locals], which should then be a concurrent map.
+  Resolver(Map<Expr, Integer> locals) {
+    this(new Binder(locals, false));
   }
 
-  private ClassType currentClass = ClassType.NONE;
+  Resolver(Binder binder) {
+    this.binder = binder;
+  }
 
-//< Classes not-yet
   Map<Expr, Integer> resolve(List<Stmt> statements) {
     for (Stmt statement : statements) {
       resolve(statement);
     }
 
-    return locals;
+    return binder.locals();
   }
 
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
-    beginScope();
+    binder.beginScope();
     resolve(stmt.statements);
-    endScope();
+    binder.endScope();
     return null;
   }
 
-//> Classes not-yet
   @Override
   public Void visitClassStmt(Stmt.Class stmt) {
-    declare(stmt.name);
-    define(stmt.name);
-
-    ClassType enclosingClass = currentClass;
-    currentClass = ClassType.CLASS;
-//> Inheritance not-yet
+    binder.declare(stmt.name);
+    binder.define(stmt.name);
 
+    Binder.ClassType enclosingClass = binder.beginClass();
     if (stmt.superclass != null) {
-      currentClass = ClassType.SUBCLASS;
-      resolve(stmt.superclass);
-      beginScope();
-      scopes.peek().put("super", true);
+      binder.superclass((Expr.Variable)stmt.superclass);
     }
-//< Inheritance not-yet
 
     for (Stmt.Function method : stmt.methods) {
-      // Push the implicit scope that binds "this" and "class".
-      beginScope();
-      scopes.peek().put("this", true);
-
-      FunctionType declaration = FunctionType.METHOD;
-      if (method.name.lexeme.equals("init")) {
-        declaration = FunctionType.INITIALIZER;
-      }
-
-      resolveFunction(method, declaration);
-      endScope();
+      Binder.FunctionType enclosingFunction = binder.beginMethod(method.name);
+      resolveFunction(method);
+      binder.endMethod(enclosingFunction);
     }
 
-//> Inheritance not-yet
-
-    if (currentClass == ClassType.SUBCLASS) endScope();
-
-//< Inheritance not-yet
-    currentClass = enclosingClass;
+    binder.endClass(enclosingClass);
     return null;
   }
 
-//< Classes not-yet
   @Override
   public Void visitExpressionStmt(Stmt.Expression stmt) {
     resolve(stmt.expression);
@@ -102,10 +66,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitFunctionStmt(Stmt.Function stmt) {
-    declare(stmt.name);
-    define(stmt.name);
+    binder.declare(stmt.name);
+    binder.define(stmt.name);
 
-    resolveFunction(stmt, FunctionType.FUNCTION);
+    Binder.FunctionType enclosingFunction =
+        binder.beginFunction(Binder.FunctionType.FUNCTION);
+    resolveFunction(stmt);
+    binder.endFunction(enclosingFunction);
     return null;
   }
 
@@ -125,31 +92,18 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitReturnStmt(Stmt.Return stmt) {
-    if (currentFunction == FunctionType.NONE) {
-      Lox.error(stmt.keyword, "Cannot return from top-level code.");
-    }
-
-    if (stmt.value != null) {
-//> Classes not-yet
-      if (currentFunction == FunctionType.INITIALIZER) {
-        Lox.error(stmt.keyword,
-            "Cannot return a value from an initializer.");
-      }
-
-//< Classes not-yet
-      resolve(stmt.value);
-    }
-
+    binder.returnStatement(stmt.keyword, stmt.value != null);
+    if (stmt.value != null) resolve(stmt.value);
     return null;
   }
 
   @Override
   public Void visitVarStmt(Stmt.Var stmt) {
-    declare(stmt.name);
+    binder.declare(stmt.name);
     if (stmt.initializer != null) {
       resolve(stmt.initializer);
     }
-    define(stmt.name);
+    binder.define(stmt.name);
     return null;
   }
 
@@ -160,10 +114,17 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitYieldStmt(Stmt.Yield stmt) {
+    binder.yieldStatement(stmt.keyword);
+    if (stmt.value != null) resolve(stmt.value);
+    return null;
+  }
+
   @Override
   public Void visitAssignExpr(Expr.Assign expr) {
     resolve(expr.value);
-    resolveLocal(expr, expr.name);
+    binder.assign(expr);
     return null;
   }
 
@@ -185,14 +146,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
-//> Classes not-yet
   @Override
   public Void visitGetExpr(Expr.Get expr) {
     resolve(expr.object);
     return null;
   }
 
-//< Classes not-yet
   @Override
   public Void visitGroupingExpr(Expr.Grouping expr) {
     resolve(expr.expression);
@@ -211,7 +170,6 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
-//> Classes not-yet
   @Override
   public Void visitSetExpr(Expr.Set expr) {
     resolve(expr.value);
@@ -219,36 +177,18 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
-//< Classes not-yet
-//> Inheritance not-yet
   @Override
   public Void visitSuperExpr(Expr.Super expr) {
-    if (currentClass == ClassType.NONE) {
-      Lox.error(expr.keyword,
-          "Cannot use 'super' outside of a class.");
-    } else if (currentClass != ClassType.SUBCLASS) {
-      Lox.error(expr.keyword,
-          "Cannot use 'super' in a class with no superclass.");
-    } else {
-      resolveLocal(expr, expr.keyword);
-    }
+    binder.superExpr(expr);
     return null;
   }
 
-//< Inheritance not-yet
-//> Classes not-yet
   @Override
   public Void visitThisExpr(Expr.This expr) {
-    if (currentClass == ClassType.NONE) {
-      Lox.error(expr.keyword,
-          "Cannot use 'this' outside of a class.");
-    } else {
-      resolveLocal(expr, expr.keyword);
-    }
+    binder.thisExpr(expr);
     return null;
   }
 
-//< Classes not-yet
   @Override
   public Void visitUnaryExpr(Expr.Unary expr) {
     resolve(expr.right);
@@ -257,13 +197,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitVariableExpr(Expr.Variable expr) {
-    if (!scopes.isEmpty() &&
-        scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-      Lox.error(expr.name,
-          "Cannot read local variable in its own initializer.");
-    }
-
-    resolveLocal(expr, expr.name);
+    binder.variable(expr);
     return null;
   }
 
@@ -275,58 +209,19 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     expr.accept(this);
   }
 
-  private void resolveFunction(Stmt.Function function, FunctionType type) {
-    FunctionType enclosingFunction = currentFunction;
-    currentFunction = type;
-
-    beginScope();
+  // In the scope begun by the Binder for the function.
+  private void resolveFunction(Stmt.Function function) {
     for (Token param : function.parameters) {
-      declare(param);
-      define(param);
-    }
-    resolve(function.body);
-    endScope();
-
-    currentFunction = enclosingFunction;
-  }
-
-  private void beginScope() {
-    scopes.push(new HashMap<String, Boolean>());
-  }
-
-  private void endScope() {
-    scopes.pop();
-  }
-
-  private void declare(Token name) {
-    // Don't need to track top level variables.
-    if (scopes.isEmpty()) return;
-
-    Map<String, Boolean> scope = scopes.peek();
-    if (scope.containsKey(name.lexeme)) {
-      Lox.error(name,
-          "Variable with this name already declared in this scope.");
+      binder.declare(param);
+      binder.define(param);
     }
 
-    scope.put(name.lexeme, false);
-  }
-
-  private void define(Token name) {
-    // Don't need to track top level variables.
-    if (scopes.isEmpty()) return;
-
-    scopes.peek().put(name.lexeme, true);
-  }
-
-  private void resolveLocal(Expr expr, Token name) {
-    for (int i = scopes.size() - 1; i >= 0; i--) {
-      if (scopes.get(i).containsKey(name.lexeme)) {
-
-        locals.put(expr, scopes.size() - 1 - i);
-        return;
-      }
+    if (function.body instanceof LazyBody &&
+        !((LazyBody)function.body).isParsed()) {
+      ((LazyBody)function.body).resolveLater(binder.copy(), false);
+    } else {
+      resolve(function.body);
     }
-
-    // Not found. Assume it is global.
   }
 }
+//< Resolving and Binding not-yet
@@ -30,6 +30,7 @@ class Scanner {
     keywords.put("true",   TRUE);
     keywords.put("var",    VAR);
     keywords.put("while",  WHILE);
+    keywords.put("yield",  YIELD);
   }
 //< keyword-map
   private final String source;
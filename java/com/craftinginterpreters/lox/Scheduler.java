@@ -0,0 +1,46 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.Semaphore;
+
+// Shares [carriers] cores between the scripts of the Contexts that use it,
+// so thousands of scripts can run on a host without a long one holding a
+// core. A script only runs while it has a turn, and gives it to the script
+// that has waited the longest every [quantum] steps, counted on the calls
+// and on the iterations of the loops, see Budget. A script that never
+// yields, like a `while (true)` loop, is then preempted all the same.
+//
+//   Scheduler scheduler = new Scheduler(4, 10000);
+//   context.setScheduler(scheduler);
+//   context.setStepLimit(100000000);
+//
+// The scripts waiting for a turn block their thread. A script gives up its
+// turn while it waits in join(), send(), receive() or await(), so the
+// scripts of the other Contexts run meanwhile, see Interpreter.waitFor.
+public final class Scheduler {
+  final int quantum;
+  private final Semaphore turns;
+
+  public Scheduler(int carriers, int quantum) {
+    if (carriers < 1 || quantum < 1) {
+      throw new IllegalArgumentException(
+          "carriers and quantum must be positive");
+    }
+    this.quantum = quantum;
+    turns = new Semaphore(carriers, true);
+  }
+
+  void begin() {
+    turns.acquireUninterruptibly();
+  }
+
+  void end() {
+    turns.release();
+  }
+
+  // Cheap when nobody waits.
+  void yieldTurn() {
+    if (!turns.hasQueuedThreads()) return;
+    end();
+    begin();
+  }
+}
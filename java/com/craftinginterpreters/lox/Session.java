@@ -0,0 +1,156 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+// A program that is run piece by piece in the same Interpreter: the lines of
+// the REPL, or the successive versions of a script being edited, see
+// -Dlox.watch in Lox.
+//
+// The variables resolved so far are kept, in a single map the Interpreter
+// uses for the whole session, so a function declared by an earlier piece
+// still finds its locals. A new version of a script is split into its
+// top-level statements by matching brackets, without parsing. Only the
+// statements whose text is not in the previous version are parsed, resolved
+// and run, so editing one function of a large script only redefines it.
+// Top-level statements are resolved on their own, which is the same as
+// resolving the whole script as globals are not tracked by the Resolver.
+//
+// An unchanged statement keeps the tree of its first version, whose lines
+// are not updated if lines are added or removed above it. The locals map is
+// weak: the variables of a replaced statement are forgotten once nothing
+// holds its tree, so a long session does not keep every version, while a
+// closure of the old version that the script still holds keeps working.
+//
+// A version with a syntax or a resolution error is not run at all. Each
+// save of a script being typed would otherwise run again the statements
+// it lacks, defining its variables anew.
+final class Session {
+  private final Interpreter interpreter;
+
+  // Synchronized as the compiler threads read it, see Tiers.
+  private final Map<Expr, Integer> locals =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  // The text of the top-level statements of the last version run, with the
+  // number of times each one occurs.
+  private Map<String, Integer> statements = new HashMap<>();
+
+  Session(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  // Runs all of [source], like a line of the REPL.
+  void run(CharSequence source) {
+    TokenArray tokens = new ArrayScanner(source).scanTokens();
+    if (Lox.hadError) return;
+
+    Map<Expr, Integer> resolved = new HashMap<>();
+    List<Stmt> program = compile(tokens, 0, tokens.size() - 1, resolved);
+    if (program == null) return;
+
+    locals.putAll(resolved);
+    interpreter.interpret(program, locals);
+  }
+
+  // Runs the top-level statements of [source] that the previous version did
+  // not have.
+  void update(CharSequence source) {
+    TokenArray tokens = new ArrayScanner(source).scanTokens();
+    if (Lox.hadError) return;
+
+    Map<String, Integer> previous = new HashMap<>(statements);
+    Map<String, Integer> current = new HashMap<>();
+    List<List<Stmt>> programs = new ArrayList<>();
+    Map<Expr, Integer> resolved = new HashMap<>();
+
+    int start = 0;
+    int eof = tokens.size() - 1;
+    while (start < eof) {
+      int end = statementEnd(tokens, start);
+      String text = source.subSequence(tokens.start(start),
+          tokens.end(end - 1)).toString();
+
+      Integer count = previous.get(text);
+      if (count != null) {
+        // Unchanged.
+        if (count == 1) {
+          previous.remove(text);
+        } else {
+          previous.put(text, count - 1);
+        }
+      } else {
+        List<Stmt> program = compile(tokens, start, end, resolved);
+        if (program == null) return;
+        programs.add(program);
+      }
+      current.merge(text, 1, Integer::sum);
+      start = end;
+    }
+
+    statements = current;
+    locals.putAll(resolved);
+    for (List<Stmt> program : programs) {
+      interpreter.interpret(program, locals);
+    }
+  }
+
+  // Parses and resolves tokens [start] to [end], exclusive, as a program,
+  // adding its variables to [resolved]. Returns null if it has a compile
+  // error.
+  private List<Stmt> compile(TokenArray tokens, int start, int end,
+                             Map<Expr, Integer> resolved) {
+    List<Stmt> program = new Parser(range(tokens, start, end)).parse();
+    if (Lox.hadError) return null;
+
+    new Resolver(resolved).resolve(program);
+    if (Lox.hadError) return null;
+
+    return program;
+  }
+
+  // Returns the index after the last token of the top-level statement that
+  // starts at [start]. It ends with a ';' or a '}' outside of any bracket,
+  // unless an 'else' follows.
+  private static int statementEnd(TokenArray tokens, int start) {
+    int eof = tokens.size() - 1;
+    int depth = 0;
+    for (int i = start; i < eof; i++) {
+      TokenType type = tokens.type(i);
+      if (type == LEFT_PAREN || type == LEFT_BRACE) {
+        depth++;
+      } else if (type == RIGHT_PAREN || type == RIGHT_BRACE) {
+        depth--;
+      }
+
+      if ((type == SEMICOLON || type == RIGHT_BRACE) && depth == 0 &&
+          tokens.type(i + 1) != ELSE) {
+        return i + 1;
+      }
+    }
+    return eof;
+  }
+
+  // The tokens [start] to [end], exclusive, followed by an EOF.
+  private static TokenSource range(TokenArray tokens, int start, int end) {
+    Token eof = new Token(EOF, "", null,
+        end > start ? tokens.line(end - 1) : tokens.line(start));
+    return new TokenSource() {
+      @Override
+      public TokenType type(int index) {
+        return start + index < end ? tokens.type(start + index) : EOF;
+      }
+
+      @Override
+      public Token get(int index) {
+        return start + index < end ? tokens.get(start + index) : eof;
+      }
+    };
+  }
+}
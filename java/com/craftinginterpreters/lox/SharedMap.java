@@ -0,0 +1,82 @@
+package com.craftinginterpreters.lox;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The variables of an Environment or the fields of a LoxInstance once Lox
+// code runs on several threads, see Concurrency.Sharing. Reads and writes
+// of a name are atomic and take no lock. A ConcurrentHashMap cannot hold
+// null, so nil is stored as NIL.
+final class SharedMap extends AbstractMap<String, Object> {
+  private static final Object NIL = new Object();
+
+  private final ConcurrentHashMap<String, Object> map;
+
+  SharedMap(Map<String, Object> map) {
+    this.map = new ConcurrentHashMap<>(Math.max(map.size(), 1));
+    for (Map.Entry<String, Object> entry : map.entrySet()) {
+      this.map.put(entry.getKey(), encode(entry.getValue()));
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return map.containsKey(key);
+  }
+
+  @Override
+  public Object get(Object key) {
+    return decode(map.get(key));
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    return decode(map.put(key, encode(value)));
+  }
+
+  @Override
+  public int size() {
+    return map.size();
+  }
+
+  @Override
+  public Set<Map.Entry<String, Object>> entrySet() {
+    return new AbstractSet<>() {
+      @Override
+      public Iterator<Map.Entry<String, Object>> iterator() {
+        Iterator<Map.Entry<String, Object>> entries =
+            map.entrySet().iterator();
+        return new Iterator<>() {
+          @Override
+          public boolean hasNext() {
+            return entries.hasNext();
+          }
+
+          @Override
+          public Map.Entry<String, Object> next() {
+            Map.Entry<String, Object> entry = entries.next();
+            return new SimpleImmutableEntry<>(entry.getKey(),
+                decode(entry.getValue()));
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return map.size();
+      }
+    };
+  }
+
+  private static Object encode(Object value) {
+    return value == null ? NIL : value;
+  }
+
+  private static Object decode(Object value) {
+    return value == NIL ? null : value;
+  }
+}
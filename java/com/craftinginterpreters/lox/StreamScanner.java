@@ -0,0 +1,253 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+// A Scanner that reads the script through a fixed-size buffer and scans a
+// token only when the Parser asks for it, so neither the whole source nor the
+// whole list of tokens is ever in memory, only the syntax tree.
+final class StreamScanner implements TokenSource {
+  private static final int BUFFER_SIZE = 8192;
+
+  // The parser needs the current token and the previous one, keep a few more.
+  private static final int WINDOW = 4;
+
+  private final Reader reader;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int position = 0;
+  private int limit = 0;
+  private boolean endOfInput = false;
+
+  // The characters of the token being scanned.
+  private final StringBuilder text = new StringBuilder();
+  private int line = 1;
+
+  private final Token[] window = new Token[WINDOW];
+  private int scanned = 0;
+
+  StreamScanner(Reader reader) {
+    this.reader = reader;
+  }
+
+  StreamScanner(ReadableByteChannel channel, Charset charset) {
+    // Replaces malformed input, like new String(bytes, charset) does.
+    this(Channels.newReader(channel, charset.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE), BUFFER_SIZE));
+  }
+
+  @Override
+  public TokenType type(int index) {
+    return get(index).type;
+  }
+
+  @Override
+  public Token get(int index) {
+    while (index >= scanned) {
+      window[scanned % WINDOW] = scanToken();
+      scanned++;
+    }
+    if (index < scanned - WINDOW) {
+      throw new IllegalStateException(
+          "Token " + index + " is no longer buffered.");
+    }
+    return window[index % WINDOW];
+  }
+
+  private Token scanToken() {
+    for (;;) {
+      text.setLength(0);
+      if (isAtEnd()) return new Token(EOF, "", null, line);
+
+      char c = advance();
+      switch (c) {
+        case '(': return token(LEFT_PAREN);
+        case ')': return token(RIGHT_PAREN);
+        case '{': return token(LEFT_BRACE);
+        case '}': return token(RIGHT_BRACE);
+        case ',': return token(COMMA);
+        case '.': return token(DOT);
+        case '-': return token(MINUS);
+        case '+': return token(PLUS);
+        case ';': return token(SEMICOLON);
+        case '*': return token(STAR);
+        case '!': return token(match('=') ? BANG_EQUAL : BANG);
+        case '=': return token(match('=') ? EQUAL_EQUAL : EQUAL);
+        case '<': return token(match('=') ? LESS_EQUAL : LESS);
+        case '>': return token(match('=') ? GREATER_EQUAL : GREATER);
+        case '/':
+          if (match('/')) {
+            // A comment goes until the end of the line.
+            while (peek(0) != '\n' && !isAtEnd()) skip();
+            break;
+          }
+          return token(SLASH);
+
+        case ' ':
+        case '\r':
+        case '\t':
+          // Ignore whitespace.
+          break;
+
+        case '\n':
+          line++;
+          break;
+
+        case '"': {
+          Token token = string();
+          if (token != null) return token;
+          break;
+        }
+
+        default:
+          if (isDigit(c)) return number();
+          if (isAlpha(c)) return identifier();
+
+          Lox.error(line, "Unexpected character.");
+          break;
+      }
+    }
+  }
+
+  private Token identifier() {
+    while (isAlphaNumeric(peek(0))) advance();
+
+    String lexeme = text.toString();
+    return new Token(keyword(lexeme), lexeme, null, line);
+  }
+
+  private static TokenType keyword(String text) {
+    switch (text) {
+      case "and":    return AND;
+      case "class":  return CLASS;
+      case "else":   return ELSE;
+      case "false":  return FALSE;
+      case "for":    return FOR;
+      case "fun":    return FUN;
+      case "if":     return IF;
+      case "nil":    return NIL;
+      case "or":     return OR;
+      case "print":  return PRINT;
+      case "return": return RETURN;
+      case "super":  return SUPER;
+      case "this":   return THIS;
+      case "true":   return TRUE;
+      case "var":    return VAR;
+      case "while":  return WHILE;
+      case "yield":  return YIELD;
+      default:       return IDENTIFIER;
+    }
+  }
+
+  private Token number() {
+    while (isDigit(peek(0))) advance();
+
+    // Look for a fractional part.
+    if (peek(0) == '.' && isDigit(peek(1))) {
+      // Consume the "."
+      advance();
+
+      while (isDigit(peek(0))) advance();
+    }
+
+    String lexeme = text.toString();
+    return new Token(NUMBER, lexeme, Double.parseDouble(lexeme), line);
+  }
+
+  // Returns null if the string is not terminated.
+  private Token string() {
+    while (peek(0) != '"' && !isAtEnd()) {
+      if (peek(0) == '\n') line++;
+      advance();
+    }
+
+    // Unterminated string.
+    if (isAtEnd()) {
+      Lox.error(line, "Unterminated string.");
+      return null;
+    }
+
+    // The closing ".
+    advance();
+
+    // Trim the surrounding quotes.
+    String value = text.substring(1, text.length() - 1);
+    return new Token(STRING, text.toString(), value, line);
+  }
+
+  private Token token(TokenType type) {
+    return new Token(type, text.toString(), null, line);
+  }
+
+  private boolean match(char expected) {
+    if (peek(0) != expected || isAtEnd()) return false;
+
+    advance();
+    return true;
+  }
+
+  private char advance() {
+    char c = buffer[position++];
+    text.append(c);
+    return c;
+  }
+
+  // Like advance() for the characters that are not part of a token.
+  private void skip() {
+    position++;
+  }
+
+  private boolean isAtEnd() {
+    return !fill(1);
+  }
+
+  // Returns the character [ahead] of the current one, or '\0' past the end.
+  private char peek(int ahead) {
+    if (!fill(ahead + 1)) return '\0';
+    return buffer[position + ahead];
+  }
+
+  // Makes sure [count] characters are buffered, unless the input ends first.
+  private boolean fill(int count) {
+    if (limit - position >= count) return true;
+    if (endOfInput) return false;
+
+    System.arraycopy(buffer, position, buffer, 0, limit - position);
+    limit -= position;
+    position = 0;
+    try {
+      while (limit < count) {
+        int read = reader.read(buffer, limit, buffer.length - limit);
+        if (read == -1) {
+          endOfInput = true;
+          return false;
+        }
+        limit += read;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return true;
+  }
+
+  private static boolean isAlpha(char c) {
+    return (c >= 'a' && c <= 'z') ||
+           (c >= 'A' && c <= 'Z') ||
+            c == '_';
+  }
+
+  private static boolean isAlphaNumeric(char c) {
+    return isAlpha(c) || isDigit(c);
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+}
@@ -0,0 +1,48 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Moves the hot functions and loops from the Interpreter to the
+// ClosureCompiler tier.
+//
+// Compilation runs in a background thread so the program keeps running in
+// the Interpreter meanwhile, the compiled code is published through the
+// volatile field of its site and picked up at the next call, or at the next
+// iteration for a loop.
+//
+// The number of calls or iterations after which code is compiled can be set
+// with -Dlox.compileThreshold=<count>.
+final class Tiers {
+  static final int THRESHOLD = Integer.getInteger("lox.compileThreshold", 1000);
+
+  private static final ExecutorService COMPILER =
+      Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "lox-compiler");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private Tiers() {}
+
+  // [locals] is read on the compiler thread, so it must be a concurrent map
+  // if the caller still adds to it, as Session, Context and LazyBody do.
+  static void compile(FunctionSite site, Map<Expr, Integer> locals,
+                      ClosureCompiler.Feedback feedback) {
+    site.requested = true;
+    COMPILER.execute(() -> {
+      site.compiled = new ClosureCompiler(locals, feedback)
+          .compileFunction(site.declaration);
+    });
+  }
+
+  static void compile(LoopSite site, Map<Expr, Integer> locals,
+                      ClosureCompiler.Feedback feedback) {
+    site.requested = true;
+    COMPILER.execute(() -> {
+      site.compiled = new ClosureCompiler(locals, feedback)
+          .compileLoop(site.loop);
+    });
+  }
+}
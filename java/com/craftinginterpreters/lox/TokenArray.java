@@ -0,0 +1,202 @@
+package com.craftinginterpreters.lox;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+// The tokens of a script as parallel arrays of primitives, filled by
+// ArrayScanner from a String or a Utf8Source. A Token object is only created
+// when the parser asks for one, with its lexeme shared with the other tokens
+// of the same text, so scanning allocates no object per token.
+final class TokenArray extends AbstractList<Token>
+    implements RandomAccess, TokenSource {
+  private static final TokenType[] TYPES = TokenType.values();
+
+  // The lexeme of the tokens that always have the same text.
+  private static final String[] FIXED = new String[TYPES.length];
+
+  static {
+    String[] texts = {
+      "(", ")", "{", "}", ",", ".", "-", "+", ";", "/", "*",
+      "!", "!=", "=", "==", ">", ">=", "<", "<=",
+    };
+    for (int i = 0; i < texts.length; i++) {
+      FIXED[LEFT_PAREN.ordinal() + i] = texts[i];
+    }
+    for (int i = AND.ordinal(); i < EOF.ordinal(); i++) {
+      FIXED[i] = TYPES[i].name().toLowerCase();
+    }
+    FIXED[EOF.ordinal()] = "";
+  }
+
+  // The text of a keyword or an operator, null for the other types.
+  static String lexeme(TokenType type) {
+    return FIXED[type.ordinal()];
+  }
+
+  private final CharSequence source;
+
+  private byte[] types;
+  private int[] starts;
+  private int[] lengths;
+  private int[] lines;
+  private int size;
+
+  // Created on demand, see get().
+  private Token[] tokens;
+
+  // Open addressing table of the identifier lexemes already created.
+  private String[] names = new String[64];
+  private int nameCount;
+
+  TokenArray(CharSequence source) {
+    this.source = source;
+
+    // About one token every five characters in typical code.
+    int capacity = Math.max(16, source.length() / 5);
+    types = new byte[capacity];
+    starts = new int[capacity];
+    lengths = new int[capacity];
+    lines = new int[capacity];
+  }
+
+  void add(TokenType type, int start, int length, int line) {
+    if (size == types.length) {
+      int capacity = size * 2;
+      types = Arrays.copyOf(types, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+      lines = Arrays.copyOf(lines, capacity);
+    }
+    types[size] = (byte)type.ordinal();
+    starts[size] = start;
+    lengths[size] = length;
+    lines[size] = line;
+    size++;
+  }
+
+  @Override
+  public TokenType type(int index) {
+    return TYPES[types[index]];
+  }
+
+  int line(int index) {
+    return lines[index];
+  }
+
+  // The offsets in the source of the first character of a token, and of the
+  // one after its last.
+  int start(int index) {
+    return starts[index];
+  }
+
+  int end(int index) {
+    return starts[index] + lengths[index];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Token get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index);
+    }
+    if (tokens == null) tokens = new Token[size];
+
+    Token token = tokens[index];
+    if (token == null) {
+      token = new Token(type(index), lexeme(index), literal(index),
+          lines[index]);
+      tokens[index] = token;
+    }
+    return token;
+  }
+
+  private String lexeme(int index) {
+    String fixed = FIXED[types[index]];
+    if (fixed != null) return fixed;
+
+    int start = starts[index];
+    int length = lengths[index];
+    if (types[index] == IDENTIFIER.ordinal()) return name(start, length);
+    return text(start, start + length);
+  }
+
+  private Object literal(int index) {
+    int start = starts[index];
+    int length = lengths[index];
+    switch (type(index)) {
+      case STRING: return text(start + 1, start + length - 1);
+      case NUMBER: return number(start, length);
+      default: return null;
+    }
+  }
+
+  // Integers are computed directly, they are exact as a double up to 15
+  // digits. Anything else goes through Double.parseDouble() to be correctly
+  // rounded.
+  private double number(int start, int length) {
+    if (length <= 15) {
+      long value = 0;
+      int i = start;
+      for (; i < start + length; i++) {
+        char c = source.charAt(i);
+        if (c == '.') break;
+        value = value * 10 + (c - '0');
+      }
+      if (i == start + length) return value;
+    }
+    return Double.parseDouble(text(start, start + length));
+  }
+
+  // Returns the same String for every occurrence of an identifier, without
+  // creating a substring to look it up.
+  private String name(int start, int length) {
+    int hash = 0;
+    for (int i = start; i < start + length; i++) {
+      hash = 31 * hash + source.charAt(i);
+    }
+
+    int mask = names.length - 1;
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      String name = names[slot];
+      if (name == null) {
+        name = text(start, start + length);
+        names[slot] = name;
+        if (++nameCount * 2 > names.length) growNames();
+        return name;
+      }
+      if (name.length() == length && matches(start, name)) return name;
+    }
+  }
+
+  // Identifiers are ASCII, so they have as many chars as the source.
+  private boolean matches(int start, String name) {
+    for (int i = 0; i < name.length(); i++) {
+      if (source.charAt(start + i) != name.charAt(i)) return false;
+    }
+    return true;
+  }
+
+  private String text(int start, int end) {
+    return source.subSequence(start, end).toString();
+  }
+
+  private void growNames() {
+    String[] old = names;
+    names = new String[old.length * 2];
+    int mask = names.length - 1;
+    for (String name : old) {
+      if (name == null) continue;
+
+      int slot = name.hashCode() & mask;
+      while (names[slot] != null) slot = (slot + 1) & mask;
+      names[slot] = name;
+    }
+  }
+}
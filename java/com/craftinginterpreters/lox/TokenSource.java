@@ -0,0 +1,28 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Where the Parser pulls its tokens from, by increasing index. The parser
+// only looks at the current token and the one before, so a source does not
+// have to keep the tokens it has already handed out.
+interface TokenSource {
+  TokenType type(int index);
+
+  Token get(int index);
+
+  static TokenSource of(List<Token> tokens) {
+    if (tokens instanceof TokenArray) return (TokenArray)tokens;
+
+    return new TokenSource() {
+      @Override
+      public TokenType type(int index) {
+        return tokens.get(index).type;
+      }
+
+      @Override
+      public Token get(int index) {
+        return tokens.get(index);
+      }
+    };
+  }
+}
@@ -0,0 +1,71 @@
+package com.craftinginterpreters.lox;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// What one iteration of a hot loop has seen, recorded by the Interpreter
+// along the path the iteration took, calls included: the operand types of
+// the operators, the functions called and the classes of the receivers.
+//
+// The loop is then compiled for that path: the calls on the path are inlined
+// behind guards on the function or on the class of the receiver, and the
+// code off the path, which the trace has not seen, is compiled without
+// specialization, so leaving the path falls back to generic code instead of
+// the Interpreter having to rebuild the state of the inlined calls.
+final class Trace implements ClosureCompiler.Feedback {
+  // Seen with more than one function or class.
+  private static final Object MEGAMORPHIC = new Object();
+
+  private final Map<Expr.Binary, Integer> operandTypes =
+      new IdentityHashMap<>();
+  private final Map<Expr.Call, Object> targets = new IdentityHashMap<>();
+  private final Map<Expr.Get, Object> receivers = new IdentityHashMap<>();
+
+  void recordOperands(Expr.Binary expr, Object left, Object right) {
+    operandTypes.merge(expr, typeOf(left) | typeOf(right), (a, b) -> a | b);
+  }
+
+  private static int typeOf(Object value) {
+    if (value instanceof Double) return Profile.NUMBER;
+    if (value instanceof String) return Profile.STRING;
+    return Profile.OTHER;
+  }
+
+  void recordTarget(Expr.Call expr, Object callee) {
+    Object target = callee instanceof LoxFunction
+        ? ((LoxFunction)callee).declaration
+        : MEGAMORPHIC;
+    record(targets, expr, target);
+  }
+
+  void recordReceiver(Expr.Get expr, Object object) {
+    Object klass = object instanceof LoxInstance
+        ? ((LoxInstance)object).klass()
+        : MEGAMORPHIC;
+    record(receivers, expr, klass);
+  }
+
+  private static <K> void record(Map<K, Object> map, K expr, Object seen) {
+    Object previous = map.putIfAbsent(expr, seen);
+    if (previous != null && previous != seen) map.put(expr, MEGAMORPHIC);
+  }
+
+  @Override
+  public int operandTypes(Expr.Binary expr) {
+    return operandTypes.getOrDefault(expr, 0);
+  }
+
+  @Override
+  public Stmt.Function target(Expr.Call expr) {
+    Object target = targets.get(expr);
+    return target instanceof Stmt.Function ? (Stmt.Function)target : null;
+  }
+
+  @Override
+  public LoxClass receiver(Expr.Call expr) {
+    if (!(expr.callee instanceof Expr.Get)) return null;
+
+    Object klass = receivers.get((Expr.Get)expr.callee);
+    return klass instanceof LoxClass ? (LoxClass)klass : null;
+  }
+}
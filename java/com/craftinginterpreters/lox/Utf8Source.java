@@ -0,0 +1,51 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// The UTF-8 bytes of a script seen as characters, one per byte, so the
+// ArrayScanner can scan a memory-mapped file without decoding it. This works
+// because everything in Lox but string literals and comments is ASCII, and
+// the bytes of a multi-byte character are never ASCII. Only the text of the
+// tokens the parser keeps is decoded, by toString().
+final class Utf8Source implements CharSequence {
+  private final ByteBuffer bytes;
+  private final int offset;
+  private final int length;
+
+  Utf8Source(ByteBuffer bytes) {
+    this(bytes, 0, bytes.limit());
+  }
+
+  private Utf8Source(ByteBuffer bytes, int offset, int length) {
+    this.bytes = bytes;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    return (char)(bytes.get(offset + index) & 0xff);
+  }
+
+  @Override
+  public Utf8Source subSequence(int start, int end) {
+    return new Utf8Source(bytes, offset + start, end - start);
+  }
+
+  // Decoded, so the result is shorter than length() if a character of the
+  // text takes more than one byte.
+  @Override
+  public String toString() {
+    byte[] text = new byte[length];
+    ByteBuffer view = bytes.duplicate();
+    view.position(offset);
+    view.get(text);
+    return new String(text, StandardCharsets.UTF_8);
+  }
+}
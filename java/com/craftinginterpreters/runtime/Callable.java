@@ -0,0 +1,9 @@
+package com.craftinginterpreters.runtime;
+
+// The Lox functions and classes of a script compiled by loxc.
+interface Callable {
+  // The number of arguments this function requires.
+  int requiredArguments();
+
+  Object call(Object[] arguments);
+}
@@ -0,0 +1,11 @@
+package com.craftinginterpreters.runtime;
+
+// A local variable captured by a function, so the function and the code
+// that declares the variable see the same value.
+final class Cell {
+  Object value;
+
+  Cell(Object value) {
+    this.value = value;
+  }
+}
@@ -0,0 +1,52 @@
+package com.craftinginterpreters.runtime;
+
+import java.util.Map;
+
+final class LoxClass implements Callable {
+  final String name;
+  final LoxClass superclass;
+  private final Map<String, LoxMethod> methods;
+
+  LoxClass(String name, LoxClass superclass, Map<String, LoxMethod> methods) {
+    this.name = name;
+    this.superclass = superclass;
+    this.methods = methods;
+  }
+
+  LoxFunction findMethod(LoxInstance instance, String name) {
+    LoxClass klass = this;
+    while (klass != null) {
+      LoxMethod method = klass.methods.get(name);
+      if (method != null) return method.bind(instance);
+
+      klass = klass.superclass;
+    }
+
+    // Not found.
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  @Override
+  public int requiredArguments() {
+    LoxMethod initializer = methods.get("init");
+    if (initializer == null) return 0;
+    return initializer.arity;
+  }
+
+  @Override
+  public Object call(Object[] arguments) {
+    LoxInstance instance = new LoxInstance(this);
+
+    LoxMethod initializer = methods.get("init");
+    if (initializer != null) {
+      initializer.bind(instance).call(arguments);
+    }
+
+    return instance;
+  }
+}
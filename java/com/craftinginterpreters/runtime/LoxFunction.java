@@ -0,0 +1,22 @@
+package com.craftinginterpreters.runtime;
+
+// A function, the generated code subclasses it for each declaration.
+abstract class LoxFunction implements Callable {
+  private final String name;
+  private final int arity;
+
+  LoxFunction(String name, int arity) {
+    this.name = name;
+    this.arity = arity;
+  }
+
+  @Override
+  public int requiredArguments() {
+    return arity;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,29 @@
+package com.craftinginterpreters.runtime;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class LoxInstance {
+  private final LoxClass klass;
+  final Map<String, Object> fields = new HashMap<>();
+
+  LoxInstance(LoxClass klass) {
+    this.klass = klass;
+  }
+
+  Object getProperty(String name, int line) {
+    if (fields.containsKey(name)) {
+      return fields.get(name);
+    }
+
+    LoxFunction method = klass.findMethod(this, name);
+    if (method != null) return method;
+
+    throw new RuntimeError("Undefined property '" + name + "'.", line);
+  }
+
+  @Override
+  public String toString() {
+    return klass.name + " instance";
+  }
+}
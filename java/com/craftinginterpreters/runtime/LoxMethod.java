@@ -0,0 +1,27 @@
+package com.craftinginterpreters.runtime;
+
+// A method before it is bound to an instance, the generated code subclasses
+// it for each declaration.
+abstract class LoxMethod {
+  final String name;
+  final int arity;
+  private final boolean isInitializer;
+
+  LoxMethod(String name, int arity, boolean isInitializer) {
+    this.name = name;
+    this.arity = arity;
+    this.isInitializer = isInitializer;
+  }
+
+  abstract Object invoke(LoxInstance self, Object[] arguments);
+
+  LoxFunction bind(LoxInstance self) {
+    return new LoxFunction(name, arity) {
+      @Override
+      public Object call(Object[] arguments) {
+        Object result = invoke(self, arguments);
+        return isInitializer ? self : result;
+      }
+    };
+  }
+}
@@ -0,0 +1,180 @@
+package com.craftinginterpreters.runtime;
+
+// The operations the code generated by loxc calls, they behave exactly like
+// the ones of the Interpreter, errors included.
+final class LoxRuntime {
+  // The value of a global variable that has not been defined yet.
+  static final Object UNDEFINED = new Object();
+
+  static final Callable CLOCK = new LoxFunction("clock", 0) {
+    @Override
+    public Object call(Object[] arguments) {
+      return (double)System.currentTimeMillis() / 1000.0;
+    }
+  };
+
+  private LoxRuntime() {}
+
+  // Runs the top level code of the script and reports a runtime error like
+  // jlox does.
+  static void run(Runnable script) {
+    try {
+      script.run();
+    } catch (RuntimeError error) {
+      System.out.flush();
+      System.err.println(error.getMessage() + "\n[line " + error.line + "]");
+      System.exit(70);
+    }
+  }
+
+  static Object global(Object value, String name, int line) {
+    if (value == UNDEFINED) throw undefined(name, line);
+    return value;
+  }
+
+  static void checkDefined(Object value, String name, int line) {
+    if (value == UNDEFINED) throw undefined(name, line);
+  }
+
+  private static RuntimeError undefined(String name, int line) {
+    return new RuntimeError("Undefined variable '" + name + "'.", line);
+  }
+
+  static void print(Object value) {
+    System.out.println(stringify(value));
+  }
+
+  static Object call(Object callee, Object[] arguments, int line) {
+    if (!(callee instanceof Callable)) {
+      throw new RuntimeError("Can only call functions and classes.", line);
+    }
+
+    Callable function = (Callable)callee;
+    if (arguments.length < function.requiredArguments()) {
+      throw new RuntimeError("Not enough arguments.", line);
+    }
+
+    return function.call(arguments);
+  }
+
+  static LoxClass superclass(Object superclass, int line) {
+    if (!(superclass instanceof LoxClass)) {
+      throw new RuntimeError("Superclass must be a class.", line);
+    }
+    return (LoxClass)superclass;
+  }
+
+  static Object get(Object object, String name, int line) {
+    if (object instanceof LoxInstance) {
+      return ((LoxInstance)object).getProperty(name, line);
+    }
+
+    throw new RuntimeError("Only instances have properties.", line);
+  }
+
+  static Object set(Object object, String name, Object value, int line) {
+    if (object instanceof LoxInstance) {
+      ((LoxInstance)object).fields.put(name, value);
+      return value;
+    }
+
+    throw new RuntimeError("Only instances have fields.", line);
+  }
+
+  static Object superMethod(LoxClass superclass, LoxInstance self,
+                            String name, int line) {
+    LoxFunction method = superclass.findMethod(self, name);
+    if (method == null) {
+      throw new RuntimeError("Undefined property '" + name + "'.", line);
+    }
+    return method;
+  }
+
+  static Object add(Object left, Object right, int line) {
+    if (left instanceof Double && right instanceof Double) {
+      return (double)left + (double)right;
+    }
+
+    if (left instanceof String && right instanceof String) {
+      return (String)left + (String)right;
+    }
+
+    throw new RuntimeError(
+        "Operands must be two numbers or two strings.", line);
+  }
+
+  static Object subtract(Object left, Object right, int line) {
+    checkNumberOperands(left, right, line);
+    return (double)left - (double)right;
+  }
+
+  static Object multiply(Object left, Object right, int line) {
+    checkNumberOperands(left, right, line);
+    return (double)left * (double)right;
+  }
+
+  static Object divide(Object left, Object right, int line) {
+    checkNumberOperands(left, right, line);
+    return (double)left / (double)right;
+  }
+
+  static Object greater(Object left, Object right, int line) {
+    checkNumberOperands(left, right, line);
+    return (double)left > (double)right;
+  }
+
+  static Object greaterEqual(Object left, Object right, int line) {
+    checkNumberOperands(left, right, line);
+    return (double)left >= (double)right;
+  }
+
+  static Object less(Object left, Object right, int line) {
+    checkNumberOperands(left, right, line);
+    return (double)left < (double)right;
+  }
+
+  static Object lessEqual(Object left, Object right, int line) {
+    checkNumberOperands(left, right, line);
+    return (double)left <= (double)right;
+  }
+
+  static Object negate(Object operand, int line) {
+    if (operand instanceof Double) return -(double)operand;
+    throw new RuntimeError("Operand must be a number.", line);
+  }
+
+  private static void checkNumberOperands(Object left, Object right,
+                                          int line) {
+    if (left instanceof Double && right instanceof Double) return;
+    throw new RuntimeError("Operands must be numbers.", line);
+  }
+
+  static boolean isTruthy(Object object) {
+    if (object == null) return false;
+    if (object instanceof Boolean) return (boolean)object;
+    return true;
+  }
+
+  static boolean isEqual(Object a, Object b) {
+    // nil is only equal to nil.
+    if (a == null && b == null) return true;
+    if (a == null) return false;
+
+    return a.equals(b);
+  }
+
+  static String stringify(Object object) {
+    if (object == null) return "nil";
+
+    // Work around Java adding ".0" to integer-valued doubles.
+    if (object instanceof Double) {
+      String text = object.toString();
+      if (text.endsWith(".0")) {
+        text = text.substring(0, text.length() - 2);
+      }
+      return text;
+    }
+
+    return object.toString();
+  }
+}
@@ -0,0 +1,10 @@
+package com.craftinginterpreters.runtime;
+
+final class RuntimeError extends RuntimeException {
+  final int line;
+
+  RuntimeError(String message, int line) {
+    super(message);
+    this.line = line;
+  }
+}
@@ -74,8 +74,9 @@ public class GenerateAst {
       "Var        : Token name, Expr initializer",
 //< var-stmt-ast
 //> Control Flow not-yet
-      "While      : Expr condition, Stmt body"
+      "While      : Token keyword, Expr condition, Stmt body",
 //< Control Flow not-yet
+      "Yield      : Token keyword, Expr value"
     ));
 //< Statements and State stmt-ast
 //< call-define-ast
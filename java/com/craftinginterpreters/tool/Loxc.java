@@ -0,0 +1,19 @@
+package com.craftinginterpreters.tool;
+
+import com.craftinginterpreters.lox.Lox;
+import java.io.IOException;
+
+// Compiles a Lox script ahead of time into a jar that runs with
+// "java -jar <jar>", without scanning, parsing or interpreting at startup.
+// The jar holds the compiled script and the runtime library of the package
+// com.craftinginterpreters.runtime, build it first with "make loxc".
+public class Loxc {
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: loxc <script> <output jar>");
+      System.exit(64);
+    }
+
+    Lox.compileFile(args[0], args[1]);
+  }
+}
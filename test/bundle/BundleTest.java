@@ -0,0 +1,132 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+// Checks Bundle, which parses the scripts given to jlox together. In the
+// package of jlox, as Bundle is not public.
+//
+//   make test_bundle
+public class BundleTest {
+  private static int failures = 0;
+
+  public static void main(String[] args) throws IOException {
+    Path directory = Files.createTempDirectory("bundle");
+    try {
+      order(directory);
+      errors(directory);
+    } finally {
+      for (Path path : Files.list(directory).toArray(Path[]::new)) {
+        Files.delete(path);
+      }
+      Files.delete(directory);
+    }
+
+    if (failures > 0) {
+      System.out.println(failures + " checks failed.");
+      System.exit(1);
+    }
+    System.out.println("All checks passed.");
+  }
+
+  // The statements are merged in the order of the arguments, whatever the
+  // order the scripts are parsed in.
+  private static void order(Path directory) throws IOException {
+    String first = script(directory, "first.lox",
+        "var greeting = \"hello\";\nfun greet(name) {\n" +
+        "  return greeting + \" \" + name;\n}\n");
+    String second = script(directory, "second.lox",
+        "print greet(\"second\");\n");
+
+    List<String> paths = new ArrayList<>();
+    paths.add(first);
+    paths.add(second);
+    StringBuilder expected = new StringBuilder("hello second\n");
+    for (int i = 0; i < 50; i++) {
+      paths.add(script(directory, "print" + i + ".lox",
+          "print " + i + ";\n"));
+      expected.append(i).append("\n");
+    }
+
+    Result result = parse(paths.toArray(new String[0]));
+    check("no error", result.err, "");
+    check("order", result.run(), expected.toString());
+  }
+
+  // The syntax errors of each script are reported with its path, in the
+  // order of the arguments, and nothing runs.
+  private static void errors(Path directory) throws IOException {
+    String good = script(directory, "good.lox", "print 1;\n");
+    String bad = script(directory, "bad.lox", "print 1;\nprint;\n");
+    String worse = script(directory, "worse.lox", "var;\n\nprint (;\n");
+
+    Result result = parse(new String[] {worse, good, bad});
+    check("error statements", result.statements, null);
+    check("error state", Lox.hadError, true);
+    check("error messages", result.err,
+        worse + ": [line 1] Error at ';': Expect variable name.\n" +
+        worse + ": [line 3] Error at ';': Expect expression.\n" +
+        bad + ": [line 2] Error at ';': Expect expression.\n");
+  }
+
+  private static String script(Path directory, String name, String source)
+      throws IOException {
+    Path path = directory.resolve(name);
+    Files.write(path, source.getBytes(Charset.defaultCharset()));
+    return path.toString();
+  }
+
+  private static Result parse(String[] paths) throws IOException {
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    PrintStream stderr = System.err;
+    System.setErr(new PrintStream(err, true));
+    Lox.hadError = false;
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      List<Stmt> statements = Bundle.parse(paths, pool);
+      return new Result(statements, lines(err));
+    } finally {
+      pool.shutdown();
+      System.setErr(stderr);
+    }
+  }
+
+  private static final class Result {
+    final List<Stmt> statements;
+    final String err;
+
+    Result(List<Stmt> statements, String err) {
+      this.statements = statements;
+      this.err = err;
+    }
+
+    // Returns what the statements print.
+    String run() {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Interpreter interpreter = new Interpreter();
+      interpreter.out = new Printer(out, Charset.defaultCharset(), 0, false);
+      interpreter.interpret(statements, new Resolver().resolve(statements));
+      interpreter.out.flush();
+      return lines(out);
+    }
+  }
+
+  private static String lines(ByteArrayOutputStream stream) {
+    return stream.toString().replace(System.lineSeparator(), "\n");
+  }
+
+  private static void check(String name, Object actual, Object expected) {
+    if (Objects.equals(actual, expected)) return;
+    System.out.println("FAIL: " + name + ": expected " + expected +
+        ", got " + actual + ".");
+    failures++;
+  }
+}
@@ -0,0 +1,216 @@
+import com.craftinginterpreters.lox.Context;
+import com.craftinginterpreters.lox.Program;
+import com.craftinginterpreters.lox.Scheduler;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+
+// Checks Context and Program, as a host running several scripts would use
+// them.
+//
+//   make test_context
+public class ContextTest {
+  private static int failures = 0;
+
+  public static void main(String[] args) throws InterruptedException {
+    errors();
+    globals();
+    sharedProgram();
+    stepLimit();
+    stepLimitLine();
+    fairTurns();
+
+    if (failures > 0) {
+      System.out.println(failures + " checks failed.");
+      System.exit(1);
+    }
+    System.out.println("All checks passed.");
+  }
+
+  private static void errors() {
+    Output output = new Output();
+    Context context = output.context();
+
+    check("no error", context.exitCode(), 0);
+
+    check("syntax error program", context.compile("var;"), null);
+    check("syntax error", context.hadError(), true);
+    check("syntax error exit code", context.exitCode(), 65);
+    check("syntax error message", output.err(),
+        "[line 1] Error at ';': Expect variable name.\n");
+
+    context.reset();
+    check("reset", context.exitCode(), 0);
+
+    // The resolution errors are reported if the syntax is fine.
+    output.clear();
+    check("resolution error program", context.compile("return 1;"), null);
+    check("resolution error message", output.err(),
+        "[line 1] Error at 'return': Cannot return from top-level code.\n");
+
+    context.reset();
+    output.clear();
+    context.run(context.compile("print 1;\n1 + nil;"));
+    check("runtime error", context.hadRuntimeError(), true);
+    check("runtime error exit code", context.exitCode(), 70);
+    check("runtime error out", output.out(), "1\n");
+    check("runtime error message", output.err(),
+        "Operands must be two numbers or two strings.\n[line 2]\n");
+
+    // A Context does not set the state of the others.
+    Output other = new Output();
+    other.context().run(other.context().compile("print 2;"));
+    check("other context", other.context().exitCode(), 0);
+    check("other context out", other.out(), "2\n");
+  }
+
+  private static void globals() {
+    Output output = new Output();
+    Context context = output.context();
+    context.run(context.compile("var a = 1; fun f() { return a + 1; }"));
+    context.run(context.compile("a = f(); print a;"));
+    check("globals kept", output.out(), "2\n");
+    check("globals no error", context.exitCode(), 0);
+  }
+
+  // Each Context runs the same Program on its own thread, in its own
+  // globals.
+  private static void sharedProgram() throws InterruptedException {
+    Program program = new Output().context().compile(
+        "var sum = 0;\n" +
+        "for (var i = 1; i <= 1000; i = i + 1) sum = sum + i;\n" +
+        "print sum;");
+
+    Output[] outputs = new Output[4];
+    Thread[] threads = new Thread[outputs.length];
+    for (int i = 0; i < outputs.length; i++) {
+      Output output = outputs[i] = new Output();
+      threads[i] = new Thread(() -> output.context().run(program));
+      threads[i].start();
+    }
+    for (int i = 0; i < outputs.length; i++) {
+      threads[i].join();
+      check("shared program " + i, outputs[i].out(), "500500\n");
+      check("shared program exit code " + i,
+          outputs[i].context().exitCode(), 0);
+    }
+  }
+
+  // The slices of parallelMap count their steps toward the limit of the
+  // script, each of them is under it.
+  private static void stepLimit() {
+    String source =
+        "fun work(n) {\n" +
+        "  var sum = 0;\n" +
+        "  for (var i = 0; i < 10; i = i + 1) sum = sum + i;\n" +
+        "  return sum;\n" +
+        "}\n" +
+        "print sequenceLength(parallelMap(COUNT, work));";
+
+    Output under = new Output();
+    under.context().setStepLimit(5000);
+    under.context().run(under.context().compile(
+        source.replace("COUNT", "100")));
+    check("parallel under limit", under.out(), "100\n");
+    check("parallel under limit exit code", under.context().exitCode(), 0);
+
+    Output over = new Output();
+    over.context().setStepLimit(5000);
+    over.context().run(over.context().compile(
+        source.replace("COUNT", "1000")));
+    check("parallel over limit", over.context().hadRuntimeError(), true);
+    check("parallel over limit message",
+        over.err().startsWith("Step limit exceeded."), true);
+  }
+
+  // A loop is stopped at its line, even outside of any function.
+  private static void stepLimitLine() {
+    String[] loops = {
+        "var i = 0;\nwhile (true) {\n  i = i + 1;\n}",
+        "var i = 0;\nfor (;;) i = i + 1;",
+        "fun f() {\n  while (true) {}\n}\nf();"
+    };
+    for (int i = 0; i < loops.length; i++) {
+      Output output = new Output();
+      output.context().setStepLimit(1000);
+      output.context().run(output.context().compile(loops[i]));
+      check("step limit " + i, output.err(),
+          "Step limit exceeded.\n[line 2]\n");
+    }
+  }
+
+  // A script blocked in receive() gives up its turn, so a script of another
+  // Context sharing the only carrier runs meanwhile.
+  private static void fairTurns() throws InterruptedException {
+    Scheduler scheduler = new Scheduler(1, 100);
+    CountDownLatch waiting = new CountDownLatch(1);
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    Context blocked = new Context(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+        waiting.countDown();
+      }
+    }, true), new PrintStream(err, true), 0);
+    blocked.setScheduler(scheduler);
+    Program program = blocked.compile(
+        "var c = channel(0);\n" +
+        "fun later() {\n" +
+        "  var start = clock();\n" +
+        "  while (clock() < start + 2) {}\n" +
+        "  send(c, 1);\n" +
+        "}\n" +
+        "spawn(later);\n" +
+        "print \"waiting\";\n" +
+        "receive(c);");
+    Thread thread = new Thread(() -> blocked.run(program));
+    thread.start();
+    waiting.await();
+
+    Output other = new Output();
+    other.context().setScheduler(scheduler);
+    other.context().run(other.context().compile(
+        "var sum = 0;\n" +
+        "for (var i = 0; i < 1000; i = i + 1) sum = sum + i;\n" +
+        "print sum;"));
+    check("turn while blocked", thread.isAlive(), true);
+    check("turn while blocked out", other.out(), "499500\n");
+
+    thread.join();
+    check("blocked exit code", blocked.exitCode(), 0);
+    check("blocked err", err.toString(), "");
+  }
+
+  // A Context with its output and its errors in memory.
+  private static final class Output {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    private final Context context =
+        new Context(new PrintStream(out, true), new PrintStream(err, true));
+
+    Context context() {
+      return context;
+    }
+
+    String out() {
+      return out.toString().replace(System.lineSeparator(), "\n");
+    }
+
+    String err() {
+      return err.toString().replace(System.lineSeparator(), "\n");
+    }
+
+    void clear() {
+      out.reset();
+      err.reset();
+    }
+  }
+
+  private static void check(String name, Object actual, Object expected) {
+    if (Objects.equals(actual, expected)) return;
+    System.out.println("FAIL: " + name + ": expected " + expected +
+        ", got " + actual + ".");
+    failures++;
+  }
+}
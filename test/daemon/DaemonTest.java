@@ -0,0 +1,190 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Checks Daemon, a server and its clients in the same process. In the
+// package of jlox, as the server and the client are not public.
+//
+//   make test_daemon
+public class DaemonTest {
+  private static int failures = 0;
+
+  public static void main(String[] args)
+      throws IOException, InterruptedException {
+    Path directory = Files.createTempDirectory("daemon");
+    Path socket = directory.resolve("socket");
+    Thread server = new Thread(() -> {
+      try {
+        Daemon.serve(socket);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    server.setDaemon(true);
+    server.start();
+    waitFor(socket);
+
+    try {
+      output(directory, socket);
+      errors(directory, socket);
+      tasks(directory, socket);
+    } finally {
+      for (Path path : Files.list(directory).toArray(Path[]::new)) {
+        Files.delete(path);
+      }
+      Files.delete(directory);
+    }
+
+    if (failures > 0) {
+      System.out.println(failures + " checks failed.");
+      System.exit(1);
+    }
+    System.out.println("All checks passed.");
+  }
+
+  // A script printing more than a frame holds.
+  private static void output(Path directory, Path socket) throws IOException {
+    Result result = run(socket, script(directory, "output.lox",
+        "var line = \"0123456789\";\n" +
+        "for (var i = 0; i < 10; i = i + 1) line = line + line;\n" +
+        "print line;\nprint \"end\";\n"));
+    check("output exit code", result.exitCode, 0);
+    check("output length", result.out.length(), 10240 + 1 + 4);
+    check("output end", result.out.endsWith("\nend\n"), true);
+    check("output err", result.err, "");
+  }
+
+  private static void errors(Path directory, Path socket) throws IOException {
+    Result syntax = run(socket, script(directory, "syntax.lox", "var;\n"));
+    check("syntax exit code", syntax.exitCode, 65);
+    check("syntax err", syntax.err,
+        "[line 1] Error at ';': Expect variable name.\n");
+
+    Result runtime = run(socket, script(directory, "runtime.lox",
+        "print 1;\n1 + nil;\n"));
+    check("runtime exit code", runtime.exitCode, 70);
+    check("runtime out", runtime.out, "1\n");
+    check("runtime err", runtime.err,
+        "Operands must be two numbers or two strings.\n[line 2]\n");
+
+    Result missing = run(socket, directory.resolve("missing.lox").toString());
+    check("missing exit code", missing.exitCode, 66);
+  }
+
+  // The tasks report their errors while the script prints: each frame
+  // arrives whole.
+  private static void tasks(Path directory, Path socket) throws IOException {
+    Result result = run(socket, script(directory, "tasks.lox",
+        "fun fail() {\n  return nil + 1;\n}\n" +
+        "var task;\n" +
+        "for (var i = 0; i < 50; i = i + 1) {\n" +
+        "  task = spawn(fail);\n" +
+        "  for (var j = 0; j < 20; j = j + 1) print i * 20 + j;\n" +
+        "}\n" +
+        "join(task);\n"));
+    check("tasks exit code", result.exitCode, 70);
+
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; i++) expected.append(i).append("\n");
+    check("tasks out", result.out, expected.toString());
+
+    String[] lines = result.err.split("\n");
+    int failed = 0;
+    for (String line : lines) {
+      if (line.equals("Operands must be two numbers or two strings.")) {
+        failed++;
+      } else if (!line.equals("[line 2]") && !line.equals("[line 9]") &&
+          !line.equals("Joined task failed.")) {
+        check("tasks err line", line, "an error");
+      }
+    }
+    check("tasks errors", failed > 0, true);
+    check("tasks join error", result.err.endsWith(
+        "Joined task failed.\n[line 9]\n"), true);
+  }
+
+  // The socket file exists once it is bound, a little before the server
+  // listens.
+  private static void waitFor(Path socket) throws InterruptedException {
+    for (;;) {
+      try (SocketChannel channel =
+               SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+        return;
+      } catch (IOException e) {
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  private static String script(Path directory, String name, String source)
+      throws IOException {
+    Path path = directory.resolve(name);
+    Files.write(path, source.getBytes(Charset.defaultCharset()));
+    return path.toString();
+  }
+
+  // Runs the client, with what it writes to stdout and stderr kept. A
+  // client that gets a broken frame may wait forever, so it gets a minute.
+  private static Result run(Path socket, String script) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    PrintStream stdout = System.out;
+    PrintStream stderr = System.err;
+    System.setOut(new PrintStream(out, true));
+    System.setErr(new PrintStream(err, true));
+    FutureTask<Integer> client =
+        new FutureTask<>(() -> Daemon.run(socket, script));
+    Thread thread = new Thread(client);
+    thread.setDaemon(true);
+    thread.start();
+    try {
+      int exitCode = client.get(1, TimeUnit.MINUTES);
+      return new Result(exitCode, lines(out), lines(err));
+    } catch (TimeoutException e) {
+      check(script + " ends", false, true);
+      return new Result(-1, lines(out), lines(err));
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    } finally {
+      System.setOut(stdout);
+      System.setErr(stderr);
+    }
+  }
+
+  private static final class Result {
+    final int exitCode;
+    final String out;
+    final String err;
+
+    Result(int exitCode, String out, String err) {
+      this.exitCode = exitCode;
+      this.out = out;
+      this.err = err;
+    }
+  }
+
+  private static String lines(ByteArrayOutputStream stream) {
+    return stream.toString().replace(System.lineSeparator(), "\n");
+  }
+
+  private static void check(String name, Object actual, Object expected) {
+    if (Objects.equals(actual, expected)) return;
+    System.out.println("FAIL: " + name + ": expected " + expected +
+        ", got " + actual + ".");
+    failures++;
+  }
+}
@@ -0,0 +1,167 @@
+import java.io.StringWriter;
+import java.util.Objects;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+// Checks LoxScriptEngine through javax.script, as a host would use it.
+//
+//   make test_script_engine
+public class ScriptEngineTest {
+  private static int failures = 0;
+
+  public static void main(String[] args) throws ScriptException {
+    ScriptEngine engine = new ScriptEngineManager().getEngineByName("lox");
+    check("engine", engine != null, true);
+
+    returnValues(engine);
+    bindings(engine);
+    compiledScript((Compilable)engine);
+    errors(engine);
+    generatorError(engine);
+    output(engine);
+    taskError(engine);
+
+    if (failures > 0) {
+      System.out.println(failures + " checks failed.");
+      System.exit(1);
+    }
+    System.out.println("All checks passed.");
+  }
+
+  private static void returnValues(ScriptEngine engine)
+      throws ScriptException {
+    check("expression", engine.eval("1 + 2;"), 3.0);
+    check("string", engine.eval("\"a\" + \"b\";"), "ab");
+    check("last statement", engine.eval("1; var a = 2;"), null);
+    check("nil", engine.eval("nil;"), null);
+  }
+
+  private static void bindings(ScriptEngine engine) throws ScriptException {
+    Bindings bindings = engine.createBindings();
+    bindings.put("count", 3);
+    bindings.put("name", "lox");
+
+    check("host number", engine.eval("count * 2;", bindings), 6.0);
+    check("host number kept", bindings.get("count"), 3);
+    check("host string", engine.eval("name;", bindings), "lox");
+
+    engine.eval("var defined = count + 1; name = \"jlox\";", bindings);
+    check("defined", bindings.get("defined"), 4.0);
+    check("assigned", bindings.get("name"), "jlox");
+    check("unchanged", bindings.get("count"), 3);
+
+    Bindings global = engine.createBindings();
+    global.put("base", 10L);
+    ScriptContext context = new SimpleScriptContext();
+    context.setBindings(global, ScriptContext.GLOBAL_SCOPE);
+    context.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
+    check("global scope", engine.eval("base + 1;", context), 11.0);
+    check("global kept", global.get("base"), 10L);
+
+    // The script defines its variables in the bindings as it runs.
+    Bindings failed = engine.createBindings();
+    error(engine, "var before = 1; nil + 1;", failed);
+    check("defined before error", failed.get("before"), 1.0);
+  }
+
+  private static void compiledScript(Compilable engine)
+      throws ScriptException {
+    CompiledScript script = engine.compile("x * x;");
+    Bindings bindings = ((ScriptEngine)engine).createBindings();
+    for (int i = 1; i <= 3; i++) {
+      bindings.put("x", i);
+      check("compiled " + i, script.eval(bindings), (double)(i * i));
+    }
+  }
+
+  private static void errors(ScriptEngine engine) {
+    ScriptException syntax = error(engine, "var;");
+    check("syntax error", syntax.getMessage().startsWith(
+        "[line 1] Error at ';': Expect variable name."), true);
+
+    ScriptException runtime = error(engine, "\n\n1 + nil;");
+    check("runtime error", runtime.getMessage().startsWith(
+        "Operands must be two numbers or two strings."), true);
+    check("runtime error line", runtime.getLineNumber(), 3);
+
+    // A rejected promise nobody awaits fails the end of the script, which
+    // has no line.
+    ScriptException end = error(engine, "readFile(\"test/missing\");");
+    check("end error", end.getMessage().startsWith(
+        "Cannot read test/missing."), true);
+    check("end error line", end.getLineNumber(), -1);
+  }
+
+  // A script cannot go on after a runtime error, but the bindings keep the
+  // generator it ended.
+  private static void generatorError(ScriptEngine engine)
+      throws ScriptException {
+    Bindings bindings = engine.createBindings();
+    error(engine, "fun f() { yield 1; nil.x; yield 2; } var g = f(); " +
+        "next(g); next(g);", bindings);
+    check("generator ended", engine.eval("done(g);", bindings), true);
+    check("generator next", engine.eval("next(g);", bindings), null);
+  }
+
+  private static void output(ScriptEngine engine) throws ScriptException {
+    StringWriter writer = new StringWriter();
+    ScriptContext context = new SimpleScriptContext();
+    context.setWriter(writer);
+    engine.eval("print 1; print \"two\";", context);
+    check("print", writer.toString(),
+        "1" + System.lineSeparator() + "two" + System.lineSeparator());
+  }
+
+  // The error of a task spawned by the script goes to the error writer of
+  // its context, after what the script printed before.
+  private static void taskError(ScriptEngine engine) {
+    StringWriter writer = new StringWriter();
+    StringWriter errorWriter = new StringWriter();
+    ScriptContext context = new SimpleScriptContext();
+    context.setWriter(writer);
+    context.setErrorWriter(errorWriter);
+    try {
+      engine.eval("fun fail() { return nil + 1; }\n" +
+          "print \"before\";\n" +
+          "join(spawn(fail));", context);
+      check("task error fails", false, true);
+    } catch (ScriptException e) {
+      check("join error", e.getMessage().startsWith("Joined task failed."),
+          true);
+      check("join error line", e.getLineNumber(), 3);
+    }
+    check("task error out", writer.toString(),
+        "before" + System.lineSeparator());
+    check("task error", errorWriter.toString(),
+        "Operands must be two numbers or two strings.\n[line 1]" +
+        System.lineSeparator());
+  }
+
+  private static ScriptException error(ScriptEngine engine, String source) {
+    return error(engine, source, engine.createBindings());
+  }
+
+  private static ScriptException error(ScriptEngine engine, String source,
+                                       Bindings bindings) {
+    try {
+      engine.eval(source, bindings);
+    } catch (ScriptException e) {
+      return e;
+    }
+    check(source + " fails", false, true);
+    return new ScriptException("");
+  }
+
+  private static void check(String name, Object actual, Object expected) {
+    if (Objects.equals(actual, expected)) return;
+    System.out.println("FAIL: " + name + ": expected " + expected +
+        ", got " + actual + ".");
+    failures++;
+  }
+}
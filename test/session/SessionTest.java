@@ -0,0 +1,134 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.Objects;
+
+// Checks Session, which runs the lines of the REPL and the versions of a
+// script in watch mode. In the package of jlox, as Session is not public.
+//
+//   make test_session
+public class SessionTest {
+  private static int failures = 0;
+
+  public static void main(String[] args) {
+    repl();
+    unchanged();
+    oldClosure();
+    truncatedSave();
+
+    if (failures > 0) {
+      System.out.println(failures + " checks failed.");
+      System.exit(1);
+    }
+    System.out.println("All checks passed.");
+  }
+
+  // The lines share their globals and their resolved variables, and a line
+  // with an error does not stop the next ones.
+  private static void repl() {
+    Run run = new Run();
+    run.line("var a = 1;");
+    run.line("fun f() { var b = a; return b + 1; }");
+    check("repl", run.line("print f();"), "2\n");
+
+    check("repl syntax error", run.line("print;"), "");
+    check("repl syntax error message", run.err(),
+        "[line 1] Error at ';': Expect expression.\n");
+    check("repl after error", run.line("print a;"), "1\n");
+  }
+
+  // Only the statements a version adds are run.
+  private static void unchanged() {
+    Run run = new Run();
+    check("first version", run.update("var a = 1;\nprint a;"), "1\n");
+    check("same version", run.update("var a = 1;\nprint a;"), "");
+    check("added statement",
+        run.update("var a = 1;\nprint a;\nprint a + 1;"), "2\n");
+    check("repeated statement",
+        run.update("var a = 1;\nprint a;\nprint a;"), "1\n");
+  }
+
+  // A closure created by an old version of a function keeps its locals
+  // once the function is replaced.
+  private static void oldClosure() {
+    Run run = new Run();
+    String rest = "var cb = make();\nprint cb();\n";
+    check("closure", run.update(
+        "fun make() {\n  var n = 1;\n  fun cb() { return n + 1; }\n" +
+        "  return cb;\n}\n" + rest), "2\n");
+
+    check("replaced", run.update(
+        "fun make() {\n  var n = 10;\n  fun cb() { return n + 1; }\n" +
+        "  return cb;\n}\n" + rest), "");
+
+    System.gc();
+    check("old closure", run.update(
+        "fun make() {\n  var n = 10;\n  fun cb() { return n + 1; }\n" +
+        "  return cb;\n}\n" + rest + "print cb() + 1;\n"), "3\n");
+    check("old closure no error", run.err(), "");
+  }
+
+  // A version with a syntax error is not run, so the next one does not run
+  // again the statements it lacked.
+  private static void truncatedSave() {
+    Run run = new Run();
+    String script = "var count = 0;\nfun inc() { count = count + 1; }\n" +
+        "inc();\nprint count;\n";
+    check("before save", run.update(script), "1\n");
+
+    check("truncated save", run.update("var count = 0;\nfun inc() {"), "");
+    check("truncated save message", run.err(),
+        "[line 2] Error at end: Expect '}' after block.\n");
+
+    check("after save", run.update(script + "print count + 10;\n"), "11\n");
+  }
+
+  // A Session whose output and errors are kept in memory.
+  private static final class Run {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    private final Interpreter interpreter = new Interpreter();
+    private final Session session = new Session(interpreter);
+
+    Run() {
+      interpreter.out = new Printer(out, Charset.defaultCharset(), 0, false);
+    }
+
+    String line(String source) {
+      return run(() -> session.run(source));
+    }
+
+    String update(String source) {
+      return run(() -> session.update(source));
+    }
+
+    // Returns what [action] printed. The errors are kept for err().
+    private String run(Runnable action) {
+      out.reset();
+      err.reset();
+      PrintStream stderr = System.err;
+      System.setErr(new PrintStream(err, true));
+      Lox.hadError = false;
+      try {
+        action.run();
+        interpreter.out.flush();
+      } finally {
+        System.setErr(stderr);
+      }
+      return out.toString().replace(System.lineSeparator(), "\n");
+    }
+
+    String err() {
+      return err.toString().replace(System.lineSeparator(), "\n");
+    }
+  }
+
+  private static void check(String name, Object actual, Object expected) {
+    if (Objects.equals(actual, expected)) return;
+    System.out.println("FAIL: " + name + ": expected " + expected +
+        ", got " + actual + ".");
+    failures++;
+  }
+}
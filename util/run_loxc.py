@@ -0,0 +1,26 @@
+#!/usr/bin/env python3
+
+# Compiles a Lox script to a jar with loxc, then runs the jar with
+# "java -jar", so that test.py can test loxc like an interpreter.
+
+import os
+import subprocess
+import sys
+import tempfile
+
+def main():
+  if len(sys.argv) != 2:
+    print('Usage: run_loxc.py <script>', file=sys.stderr)
+    sys.exit(64)
+
+  with tempfile.TemporaryDirectory() as directory:
+    jar = os.path.join(directory, 'script.jar')
+    compile = subprocess.run(['java', '-cp', 'build/java',
+        'com.craftinginterpreters.tool.Loxc', sys.argv[1], jar])
+    if compile.returncode != 0:
+      sys.exit(compile.returncode)
+
+    sys.exit(subprocess.run(['java', '-jar', jar]).returncode)
+
+if __name__ == '__main__':
+  main()
@@ -31,6 +31,7 @@ filter_path = None
 INTERPRETERS = {}
 C_SUITES = []
 JAVA_SUITES = []
+JLOX_OPTION_SUITES = []
 
 
 class Interpreter:
@@ -81,6 +82,74 @@ java_interpreter('jlox', {
 
   # Rely on JVM for stack overflow checking.
   'test/limit/stack_overflow.lox': 'skip',
+
+  # Depend on the default charset, see jlox_utf8.
+  'test/mapped_file/utf8': 'skip',
+})
+
+# Runs the jlox tests again with an option that changes how jlox parses or
+# runs a script, which must not change what the script does.
+def jlox_option(name, option, overrides):
+  tests = dict(INTERPRETERS['jlox'].tests)
+  tests.update(overrides)
+
+  INTERPRETERS[name] = Interpreter(name, 'java',
+      ['java', option, '-cp', 'build/java',
+       'com.craftinginterpreters.lox.IndyLox'], tests)
+  JLOX_OPTION_SUITES.append(name)
+
+
+jlox_option('jlox_lazy', '-Dlox.lazy=true', {
+  # The errors in a function body are only reported when it is first called.
+  'test/assignment/to_this.lox': 'skip',
+  'test/constructor/return_value.lox': 'skip',
+  'test/generator/yield_in_initializer.lox': 'skip',
+  'test/super/no_superclass_bind.lox': 'skip',
+  'test/super/no_superclass_call.lox': 'skip',
+  'test/super/super_in_top_level_function.lox': 'skip',
+  'test/this/this_in_top_level_function.lox': 'skip',
+  'test/variable/collide_with_parameter.lox': 'skip',
+})
+jlox_option('jlox_one_pass', '-Dlox.onePass=true', {})
+jlox_option('jlox_compact', '-Dlox.compact=true', {})
+jlox_option('jlox_stream', '-Dlox.streamSize=0', {})
+# Saves the trees, and loads them the next time the suite runs.
+jlox_option('jlox_cache', '-Dlox.cache=build/test_cache', {})
+# Saves the profiles, and warms up from them the next time the suite runs.
+jlox_option('jlox_profile', '-Dlox.profile=build/test_profile', {})
+jlox_option('jlox_utf8', '-Dfile.encoding=UTF-8', {
+  'test/mapped_file/utf8': 'pass',
+})
+
+# Compiles each test to a jar with loxc, then runs the jar.
+INTERPRETERS['loxc'] = Interpreter('loxc', 'java',
+    ['python3', 'util/run_loxc.py'], {
+  'test': 'pass',
+
+  # These are just for earlier chapters.
+  'test/scanning': 'skip',
+  'test/expressions': 'skip',
+
+  # No hardcoded limits in jlox.
+  'test/limit/loop_too_large.lox': 'skip',
+  'test/limit/too_many_constants.lox': 'skip',
+  'test/limit/too_many_locals.lox': 'skip',
+  'test/limit/too_many_upvalues.lox': 'skip',
+
+  # Rely on JVM for stack overflow checking.
+  'test/limit/stack_overflow.lox': 'skip',
+
+  # The runtime library has no Java interop.
+  'test/indy': 'skip',
+
+  # No natives for threads, parallel sequences and files.
+  'test/async': 'skip',
+  'test/concurrency': 'skip',
+  'test/mapped_file': 'skip',
+  'test/parallel': 'skip',
+
+  # No generators.
+  'test/generator': 'skip',
 })
 
 java_interpreter('chap04_scanning', {
@@ -365,6 +434,15 @@ c_interpreter('clox', {
 
   # No Indy Java bridge
   'test/indy': 'skip',
+
+  # No natives for threads, parallel sequences and files.
+  'test/async': 'skip',
+  'test/concurrency': 'skip',
+  'test/mapped_file': 'skip',
+  'test/parallel': 'skip',
+
+  # No generators.
+  'test/generator': 'skip',
 })
 
 # TODO: Other chapters.
@@ -434,6 +512,15 @@ c_interpreter('chap21_global', {
 
   # No Indy Java bridge
   'test/indy': 'skip',
+
+  # No natives for threads, parallel sequences and files.
+  'test/async': 'skip',
+  'test/concurrency': 'skip',
+  'test/mapped_file': 'skip',
+  'test/parallel': 'skip',
+
+  # No generators.
+  'test/generator': 'skip',
 })
 
 c_interpreter('chap22_local', {
@@ -486,6 +573,15 @@ c_interpreter('chap22_local', {
 
   # No Indy Java bridge
   'test/indy': 'skip',
+
+  # No natives for threads, parallel sequences and files.
+  'test/async': 'skip',
+  'test/concurrency': 'skip',
+  'test/mapped_file': 'skip',
+  'test/parallel': 'skip',
+
+  # No generators.
+  'test/generator': 'skip',
 })
 
 c_interpreter('chap23_jumping', {
@@ -536,6 +632,15 @@ c_interpreter('chap23_jumping', {
 
   # No Indy Java bridge
   'test/indy': 'skip',
+
+  # No natives for threads, parallel sequences and files.
+  'test/async': 'skip',
+  'test/concurrency': 'skip',
+  'test/mapped_file': 'skip',
+  'test/parallel': 'skip',
+
+  # No generators.
+  'test/generator': 'skip',
 })
 
 c_interpreter('chap24_calls', {
@@ -575,6 +680,15 @@ c_interpreter('chap24_calls', {
 
   # No Indy Java bridge
   'test/indy': 'skip',
+
+  # No natives for threads, parallel sequences and files.
+  'test/async': 'skip',
+  'test/concurrency': 'skip',
+  'test/mapped_file': 'skip',
+  'test/parallel': 'skip',
+
+  # No generators.
+  'test/generator': 'skip',
 })
 
 c_interpreter('chap25_closures', {
@@ -605,6 +719,15 @@ c_interpreter('chap25_closures', {
 
   # No Indy Java bridge
   'test/indy': 'skip',
+
+  # No natives for threads, parallel sequences and files.
+  'test/async': 'skip',
+  'test/concurrency': 'skip',
+  'test/mapped_file': 'skip',
+  'test/parallel': 'skip',
+
+  # No generators.
+  'test/generator': 'skip',
 })
 
 c_interpreter('chap26_garbage', {
@@ -635,6 +758,15 @@ c_interpreter('chap26_garbage', {
 
   # No Indy Java bridge
   'test/indy': 'skip',
+
+  # No natives for threads, parallel sequences and files.
+  'test/async': 'skip',
+  'test/concurrency': 'skip',
+  'test/mapped_file': 'skip',
+  'test/parallel': 'skip',
+
+  # No generators.
+  'test/generator': 'skip',
 })
 
 c_interpreter('chap27_classes', {
@@ -665,6 +797,15 @@ c_interpreter('chap27_classes', {
 
   # No Indy Java bridge
   'test/indy': 'skip',
+
+  # No natives for threads, parallel sequences and files.
+  'test/async': 'skip',
+  'test/concurrency': 'skip',
+  'test/mapped_file': 'skip',
+  'test/parallel': 'skip',
+
+  # No generators.
+  'test/generator': 'skip',
 })
 
 c_interpreter('chap28_methods', {
@@ -681,6 +822,15 @@ c_interpreter('chap28_methods', {
   
   # No Indy Java bridge
   'test/indy': 'skip',
+
+  # No natives for threads, parallel sequences and files.
+  'test/async': 'skip',
+  'test/concurrency': 'skip',
+  'test/mapped_file': 'skip',
+  'test/parallel': 'skip',
+
+  # No generators.
+  'test/generator': 'skip',
 })
 
 c_interpreter('chap29_superclasses', {
@@ -692,6 +842,15 @@ c_interpreter('chap29_superclasses', {
 
   # No Indy Java bridge
   'test/indy': 'skip',
+
+  # No natives for threads, parallel sequences and files.
+  'test/async': 'skip',
+  'test/concurrency': 'skip',
+  'test/mapped_file': 'skip',
+  'test/parallel': 'skip',
+
+  # No generators.
+  'test/generator': 'skip',
 })
 
 c_interpreter('chap30_optimization', {
@@ -703,6 +862,15 @@ c_interpreter('chap30_optimization', {
 
   # No Indy Java bridge
   'test/indy': 'skip',
+
+  # No natives for threads, parallel sequences and files.
+  'test/async': 'skip',
+  'test/concurrency': 'skip',
+  'test/mapped_file': 'skip',
+  'test/parallel': 'skip',
+
+  # No generators.
+  'test/generator': 'skip',
 })
 
 class Test:
@@ -1073,6 +1241,8 @@ elif sys.argv[1] == 'c':
   run_suites(C_SUITES)
 elif sys.argv[1] == 'java':
   run_suites(JAVA_SUITES)
+elif sys.argv[1] == 'jlox_options':
+  run_suites(JLOX_OPTION_SUITES)
 elif sys.argv[1] not in INTERPRETERS:
   print('Unknown interpreter "{}"'.format(sys.argv[1]))
   sys.exit(1)